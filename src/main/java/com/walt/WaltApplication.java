@@ -1,16 +1,31 @@
 package com.walt;
 
+import com.walt.simulation.SimulationCommandRunner;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.springframework.boot.SpringApplication;
+import org.springframework.boot.WebApplicationType;
 import org.springframework.boot.autoconfigure.SpringBootApplication;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import java.util.Arrays;
 
 @SpringBootApplication
+@EnableScheduling
 public class WaltApplication {
 
     private static final Logger log = LoggerFactory.getLogger(WaltApplication.class);
 
     public static void main(String[] args) {
+        if (Arrays.stream(args).anyMatch(arg -> arg.startsWith("--" + SimulationCommandRunner.CITY + "="))) {
+            //offline capacity simulation - no web server, the process exits once the report is written
+            final ConfigurableApplicationContext context = new SpringApplicationBuilder(WaltApplication.class)
+                    .web(WebApplicationType.NONE)
+                    .run(args);
+            System.exit(SpringApplication.exit(context));
+        }
         SpringApplication.run(WaltApplication.class, args);
     }
 }
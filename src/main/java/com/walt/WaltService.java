@@ -1,16 +1,27 @@
 package com.walt;
 
 import com.walt.model.*;
+import com.walt.report.ReportPeriod;
 
 import java.util.Date;
 import java.util.List;
+import java.util.Map;
 
 public  interface WaltService{
 
     Delivery createOrderAndAssignDriver(Customer customer, Restaurant restaurant, Date deliveryTime) throws Exception;
 
+    Delivery createOrderAndAssignDriver(String requestKey, Customer customer, Restaurant restaurant, Date deliveryTime)
+            throws Exception;
+
     List<DriverDistance> getDriverRankReport();
 
     List<DriverDistance> getDriverRankReportByCity(City city);
+
+    Map<Long, List<DriverDistance>> getDriverRankReportForAllCities();
+
+    List<DriverDistance> getDriverRankReport(ReportPeriod period, Date date);
+
+    List<DriverDistance> getDriverRankReportByCity(City city, ReportPeriod period, Date date);
 }
 
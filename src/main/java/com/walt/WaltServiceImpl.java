@@ -1,13 +1,30 @@
 package com.walt;
 
-import com.walt.comparator.Sortbydistance;
+import com.walt.cluster.CityOwnership;
 import com.walt.dao.CustomerRepository;
 import com.walt.dao.DeliveryRepository;
+import com.walt.dao.DriverDailyRollupRepository;
 import com.walt.dao.DriverRepository;
+import com.walt.dispatch.DispatchStateService;
+import com.walt.dispatch.OrderRequestStore;
 import com.walt.model.*;
+import com.walt.replica.ReplicaRead;
+import com.walt.report.RankReportCache;
+import com.walt.report.RankReportEngine;
+import com.walt.report.ReportPeriod;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
 import java.util.*;
+import java.util.concurrent.ThreadLocalRandom;
 
 @Service
 public class WaltServiceImpl implements WaltService {
@@ -16,6 +33,20 @@ public class WaltServiceImpl implements WaltService {
      */
     private final int MIN_DISTANCE = 0;
     private final int MAX_DISTANCE = 20;
+    /**
+     * walt.dispatch.balance - "workload" (default) or "count" for the plain number of deliveries
+     */
+    private static final String BALANCE_BY_COUNT = "count";
+
+    @Value("${walt.dispatch.balance:workload}")
+    private String balance;
+    /**
+     * walt.dispatch.mode - "standard" (default) or "allocation-free", see createOrderFromRoster
+     */
+    private static final String ALLOCATION_FREE = "allocation-free";
+
+    @Value("${walt.dispatch.mode:standard}")
+    private String mode;
 
     @Autowired
     private DriverRepository driverRepo;
@@ -23,6 +54,28 @@ public class WaltServiceImpl implements WaltService {
     private DeliveryRepository deliveryRepo;
     @Autowired
     private CustomerRepository customerRepo;
+    @Autowired
+    private CityOwnership cityOwnership;
+    @Autowired
+    private DispatchStateService dispatchState;
+    @Autowired
+    private DriverDailyRollupRepository rollupRepo;
+    @Autowired
+    private RankReportEngine reportEngine;
+    @Autowired
+    private RankReportCache reportCache;
+    @Autowired
+    private OrderRequestStore orderRequests;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate readOnlyTransaction;
+
+    @PostConstruct
+    private void init() {
+        readOnlyTransaction = new TransactionTemplate(transactionManager);
+        readOnlyTransaction.setReadOnly(true);
+    }
 
     /**
      * creates a delivery and assign a driver that is free at te given time.
@@ -45,30 +98,88 @@ public class WaltServiceImpl implements WaltService {
             throw new Exception("customer's city and restaurant's city doesn't match!");
         }
 
+        //when running several nodes only the owner of the city dispatches its orders
+        cityOwnership.checkOwner(customer.getCity());
+
+        if (ALLOCATION_FREE.equals(mode) && dispatchState.hasRoster(customer.getCity().getId())) {
+            final Delivery fromRoster = createOrderFromRoster(customer, restaurant, deliveryTime);
+            if (fromRoster != null) {
+                return fromRoster;
+            }
+            //nobody free in the cached roster - the regular path reloads it and reports the reason
+        }
+
         final List<Driver> allDrivers = driverRepo.findAllDriversByCity(customer.getCity());
         if (allDrivers.isEmpty()) {
             throw new Exception("Selected city doesn't have drivers!");
         }
 
-        final List<Driver> availableDrivers = new ArrayList<>();
+        //the distance sets how long the drive takes, so it's known before looking for a driver
+        final int distance = getRandomDistance();
+        final long start = deliveryTime.getTime();
+        final long end = start + Delivery.durationOf(distance);
+        //same selection as the allocation-free mode, over a roster checked against the drivers just loaded
+        dispatchState.getRoster(customer.getCity().getId(), allDrivers);
+        final Driver selected = dispatchState.selectDriver(customer.getCity().getId(), start, end,
+                BALANCE_BY_COUNT.equals(balance));
+        if (selected == null) {
+            throw new Exception("There isn't available driver at this moment.");
+        }
+        //the roster keeps the entity it was loaded with, the one just read is returned
+        Driver leastBusyDriver = selected;
         for (final Driver d : allDrivers) {
-            if (isDriverAvailable(d, deliveryTime)) {
-                availableDrivers.add(d);
+            if (d.getId().equals(selected.getId())) {
+                leastBusyDriver = d;
             }
         }
 
-        if (availableDrivers.isEmpty()) {
-            throw new Exception("There isn't available driver at this moment.");
-        }
-
-        Driver leastBusyDriver = getFreeDriver(availableDrivers);
         Delivery newOrder = new Delivery(leastBusyDriver, restaurant, customer, deliveryTime);
-        int rand = getRandomDistance();
-        newOrder.setDistance(rand);
+        newOrder.setDistance(distance);
+        newOrder.setEndTime(new Date(end));
 
         return newOrder;
     }
     //---------------------------------------------------------------------------
+    /**
+     * the allocation free mode - the driver is picked over the primitive roster of the city, no entity lists,
+     * maps, streams or Random per order. only the returned Delivery is allocated.
+     * @return new Delivery for that customer, null if the roster has no free driver.
+     */
+    private Delivery createOrderFromRoster(final Customer customer, final Restaurant restaurant,
+                                           final Date deliveryTime) {
+        final int distance = ThreadLocalRandom.current().nextInt(MAX_DISTANCE - MIN_DISTANCE + 1) + MIN_DISTANCE;
+        final long start = deliveryTime.getTime();
+        final long end = start + Delivery.durationOf(distance);
+        final Driver driver = dispatchState.selectDriver(customer.getCity().getId(), start, end,
+                BALANCE_BY_COUNT.equals(balance));
+        if (driver == null) {
+            return null;
+        }
+        final Delivery newOrder = new Delivery(driver, restaurant, customer, deliveryTime);
+        newOrder.setDistance(distance);
+        newOrder.setEndTime(new Date(end));
+        return newOrder;
+    }
+    //---------------------------------------------------------------------------
+    /**
+     * creates and saves a delivery once per request key - retries of the request get the delivery created
+     * by the first one, without assigning another driver.
+     * @param requestKey - key chosen by the client, the same for all the retries of an order.
+     * @param customer - customer who made the order.
+     * @param restaurant - the place the customer ordered from.
+     * @param deliveryTime - chosen time for delivery.
+     * @return the saved Delivery of the request.
+     * @throws Exception - RequestKeyReusedException if the key was sent before with another order.
+     */
+    @Override
+    public Delivery createOrderAndAssignDriver(final String requestKey, final Customer customer,
+                                               final Restaurant restaurant, final Date deliveryTime) throws Exception {
+        final String requestHash = OrderRequestStore.hashOf(customer == null ? null : customer.getId(),
+                restaurant == null ? null : restaurant.getId(), deliveryTime == null ? null : deliveryTime.getTime());
+        return orderRequests.getOrCreate(requestKey, requestHash,
+                () -> deliveryRepo.save(createOrderAndAssignDriver(customer, restaurant, deliveryTime)));
+    }
+    //---------------------------------------------------------------------------
     /**
      * @return a random number between MIN_DISTANCE and MAX_DISTANCE (modulo)
      */
@@ -76,113 +187,73 @@ public class WaltServiceImpl implements WaltService {
         Random r = new Random(System.currentTimeMillis());
         return r.nextInt(MAX_DISTANCE - MIN_DISTANCE + 1) + MIN_DISTANCE;
     }
-    //---------------------------------------------------------------------------
+    //---------------------------------------------------------------------
     /**
-     * checks if a driver is available at a chosen time.
-     * @param dr - current checked driver.
-     * @param newDeliveryTime - chosen time for new delivery.
-     * @return if the driver is free or not
+     * creates a List of drivers and sum the deliveries distance they did.
+     * served from the cache until a delivery is recorded. a cached report begins no transaction, a report
+     * computed on a miss reads in a read-only one - hibernate skips flushing and keeps no snapshots of the
+     * loaded drivers.
+     * @return rank report list, sorted descending.
      */
-    private boolean isDriverAvailable(final Driver dr, final Date newDeliveryTime) {
-        for (final Delivery currDelivery : deliveryRepo.findAll()) {
-            //Assumption - Each drive takes a full hour – it will start and end in a full hour
-            currDelivery.getDeliveryTime().setHours(currDelivery.getDeliveryTime().getHours() + 1);
-            if (currDelivery.getDriver().getId().equals(dr.getId())
-                    && (currDelivery.getDeliveryTime().getTime() > newDeliveryTime.getTime())) {
-                return false;
-            }
-        }
-        return true;
+    @Override
+    @ReplicaRead
+    public List<DriverDistance> getDriverRankReport() {
+        return reportCache.get(RankReportCache.ALL_CITIES, () -> readOnlyTransaction.execute(
+                status -> reportEngine.rank(driverRepo.findAll(), deliveryRepo.findAllDriverDistances())));
     }
-//---------------------------------------------------------------------------
+    //---------------------------------------------------------------------
     /**
-     * @param drivers -  list of available drivers in the customer's city.
-     * @return free driver.
+     * creates a List of drivers and sum the deliveries distance they did at a given city.
+     * @param city - a chosen city to report.
+     * @return rank report list by city, sorted descending.
      */
-    private Driver getFreeDriver(final List<Driver> drivers) {
-        final Map<Long, Integer> driversMap = new HashMap<>(); //key - driver's ID, value - the number of deliveries
-
-        for (Driver d : drivers) {
-            driversMap.put(d.getId(), 0);
-        }
-
-        for (final Delivery d : deliveryRepo.findAll()) {
-            final Long key = d.getDriver().getId();
-            if (driversMap.containsKey(key)){
-                driversMap.put(key, driversMap.get(key) + 1);
-            }
-        }
-
-        final Long leastBusyDriver = getDeliveriesHistory(driversMap);
-        return drivers
-                .stream()
-                .filter(d -> d.getId().equals(leastBusyDriver))
-                .findFirst()
-                .orElse(null);
+    @Override
+    @ReplicaRead
+    public List<DriverDistance> getDriverRankReportByCity(final City city) {
+        return reportCache.get(city.getId(), () -> readOnlyTransaction.execute(
+                status -> reportEngine.rank(driverRepo.findAllDriversByCity(city),
+                        deliveryRepo.findAllDriverDistancesByCity(city.getId()))));
     }
-    //---------------------------------------------------------------------------
+    //---------------------------------------------------------------------
     /**
-     * find the driver with the min number of deliveries.
-     * @param map - stores key - driver id, value - num of deliveries.
-     * @return free driver id.
+     * rank reports of all the cities, from a single pass over the deliveries.
+     * @return rank report list of every city with drivers, key - city id.
      */
-    private Long getDeliveriesHistory(final Map<Long, Integer> map) {
-        Map.Entry<Long, Integer> min = Collections.min(map.entrySet(), new Comparator<Map.Entry<Long, Integer>>() {
-            public int compare(Map.Entry<Long, Integer> e1, Map.Entry<Long, Integer> e2) {
-                return e1.getValue().compareTo(e2.getValue());
-            }
-        });
-        return min.getKey();
+    @Override
+    @ReplicaRead
+    @Transactional(readOnly = true)
+    public Map<Long, List<DriverDistance>> getDriverRankReportForAllCities() {
+        return reportEngine.rankByCity(driverRepo.findAll(), deliveryRepo.findAllDriverDistances());
     }
     //---------------------------------------------------------------------
     /**
-     * creates a List of drivers and sum the deliveries distance they did.
+     * rank report of the day, week or month that contains the given date, read from the daily rollups.
+     * @param period - length of the reported period.
+     * @param date - a date in the reported period.
      * @return rank report list, sorted descending.
      */
     @Override
-    public List<DriverDistance> getDriverRankReport() {
-        Map<Long,DriverDistance> driverDistanceMap = new HashMap<>();
-        for (final Driver d : driverRepo.findAll()) {
-            driverDistanceMap.put(d.getId(), new DriverDistanceImpl(d, Long.valueOf(0)));
-        }
-
-        for (final Delivery delivery : deliveryRepo.findAll()) {
-            final Long key = delivery.getDriver().getId();
-            if (driverDistanceMap.containsKey(key)){
-                final Long sum = driverDistanceMap.get(key).getTotalDistance() +
-                        Double.valueOf(delivery.getDistance()).longValue();
-                driverDistanceMap.get(key).setTotalDistance(sum);
-            }
-        }
-
-        List<DriverDistance> rankLst = new ArrayList(driverDistanceMap.values());
-        Collections.sort(rankLst, new Sortbydistance());
-        return rankLst;
+    @ReplicaRead
+    @Transactional(readOnly = true)
+    public List<DriverDistance> getDriverRankReport(final ReportPeriod period, final Date date) {
+        final LocalDate day = Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()).toLocalDate();
+        return reportEngine.rank(driverRepo.findAll(), rollupRepo.sumDistanceBetween(
+                period.first(day).toEpochDay(), period.last(day).toEpochDay()));
     }
     //---------------------------------------------------------------------
     /**
-     * creates a List of drivers and sum the deliveries distance they did at a given city.
+     * rank report of a city for the day, week or month that contains the given date.
      * @param city - a chosen city to report.
+     * @param period - length of the reported period.
+     * @param date - a date in the reported period.
      * @return rank report list by city, sorted descending.
      */
     @Override
-    public List<DriverDistance> getDriverRankReportByCity(final City city) {
-        Map<Long,DriverDistance> driverDistanceMap = new HashMap<>();
-        for (final Driver d : driverRepo.findAllDriversByCity(city)) {
-            driverDistanceMap.put(d.getId(), new DriverDistanceImpl(d, Long.valueOf(0)));
-        }
-
-        for (final Delivery delivery : deliveryRepo.findAll()) {
-            final Long key = delivery.getDriver().getId();
-            if (driverDistanceMap.containsKey(key)){
-                final Long sum = driverDistanceMap.get(key).getTotalDistance() +
-                        Double.valueOf(delivery.getDistance()).longValue();
-                driverDistanceMap.get(key).setTotalDistance(sum);
-            }
-        }
-
-        List<DriverDistance> rankCityLst = new ArrayList(driverDistanceMap.values());
-        Collections.sort(rankCityLst, new Sortbydistance());
-        return rankCityLst;
+    @ReplicaRead
+    @Transactional(readOnly = true)
+    public List<DriverDistance> getDriverRankReportByCity(final City city, final ReportPeriod period, final Date date) {
+        final LocalDate day = Instant.ofEpochMilli(date.getTime()).atZone(ZoneId.systemDefault()).toLocalDate();
+        return reportEngine.rank(driverRepo.findAllDriversByCity(city), rollupRepo.sumDistanceBetweenByCity(
+                city.getId(), period.first(day).toEpochDay(), period.last(day).toEpochDay()));
     }
 }
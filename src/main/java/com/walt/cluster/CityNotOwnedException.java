@@ -0,0 +1,23 @@
+package com.walt.cluster;
+
+/**
+ * thrown when an order arrives at a node that doesn't own the order's city.
+ */
+public class CityNotOwnedException extends Exception {
+    private final String ownerNode;
+    private final String ownerUrl;
+
+    public CityNotOwnedException(final String ownerNode, final String ownerUrl) {
+        super("city is dispatched by node " + ownerNode + "!");
+        this.ownerNode = ownerNode;
+        this.ownerUrl = ownerUrl;
+    }
+
+    public String getOwnerNode() {
+        return ownerNode;
+    }
+
+    public String getOwnerUrl() {
+        return ownerUrl;
+    }
+}
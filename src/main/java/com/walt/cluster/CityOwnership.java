@@ -0,0 +1,161 @@
+package com.walt.cluster;
+
+import com.walt.dao.CityLeaseRepository;
+import com.walt.model.City;
+import com.walt.model.CityLease;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * assigns cities to nodes when several instances of the app share one database.
+ * every city has a lease row, the node holding a non expired lease owns the in-memory schedule of the city
+ * and is the only one that dispatches its orders. leases are renewed in the background, a node that dies
+ * stops renewing and its cities are taken over by the first node that sees the lease expired.
+ * leases assume the clocks of the nodes are roughly synchronized.
+ */
+@Component
+public class CityOwnership {
+
+    private static final Logger log = LoggerFactory.getLogger(CityOwnership.class);
+
+    @Value("${walt.cluster.enabled:false}")
+    private boolean enabled;
+    @Value("${walt.cluster.node-id:}")
+    private String nodeId;
+    @Value("${walt.cluster.node-url:http://localhost:${server.port:8080}}")
+    private String nodeUrl;
+    @Value("${walt.cluster.lease-ms:15000}")
+    private long leaseMillis;
+
+    @Autowired
+    private CityLeaseRepository leaseRepo;
+    @Autowired
+    private ApplicationEventPublisher publisher;
+
+    /**
+     * key - city id, value - expiration time of the lease this node holds.
+     */
+    private final Map<Long, Long> ownedUntil = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        if (nodeId == null || nodeId.isEmpty()) {
+            nodeId = UUID.randomUUID().toString();
+        }
+        if (enabled) {
+            log.info("node {} ({}) joined the cluster", nodeId, nodeUrl);
+        }
+    }
+
+    public boolean isEnabled() {
+        return enabled;
+    }
+
+    public String getNodeId() {
+        return nodeId;
+    }
+    //---------------------------------------------------------------------------
+    /**
+     * makes sure this node owns the given city, claims the city if it has no live owner.
+     * @param city - the city of the order.
+     * @throws CityNotOwnedException if another node owns the city.
+     */
+    public void checkOwner(final City city) throws CityNotOwnedException {
+        if (!enabled) {
+            return;
+        }
+        final Long until = ownedUntil.get(city.getId());
+        if (until != null && until > System.currentTimeMillis()) {
+            return;
+        }
+        final CityLease lease = claim(city.getId());
+        if (!nodeId.equals(lease.getOwnerNode())) {
+            throw new CityNotOwnedException(lease.getOwnerNode(), lease.getOwnerUrl());
+        }
+    }
+    //---------------------------------------------------------------------------
+    /**
+     * extends the leases this node holds and takes over cities whose owner stopped renewing.
+     */
+    @Scheduled(fixedDelayString = "${walt.cluster.renew-ms:5000}")
+    public void renewLeases() {
+        if (!enabled) {
+            return;
+        }
+        final long now = System.currentTimeMillis();
+        final Set<Long> renewed = new HashSet<>();
+        for (final CityLease lease : leaseRepo.findAllByOwnerNode(nodeId)) {
+            lease.setExpiresAt(new Date(now + leaseMillis));
+            try {
+                leaseRepo.save(lease);
+                acquired(lease.getCityId(), now + leaseMillis);
+                renewed.add(lease.getCityId());
+            } catch (OptimisticLockingFailureException e) {
+                //another node took over the city after our lease expired
+            }
+        }
+
+        for (final Long cityId : ownedUntil.keySet()) {
+            if (!renewed.contains(cityId)) {
+                lost(cityId);
+            }
+        }
+
+        for (final CityLease lease : leaseRepo.findAllByExpiresAtBefore(new Date(now))) {
+            claim(lease.getCityId());
+        }
+    }
+    //---------------------------------------------------------------------------
+    /**
+     * tries to take the lease of a city that has no owner or whose owner's lease expired.
+     * @param cityId - the claimed city.
+     * @return the lease as stored after the attempt, owned by this node or by the winner of a race.
+     */
+    private CityLease claim(final Long cityId) {
+        final long now = System.currentTimeMillis();
+        CityLease lease = leaseRepo.findById(cityId).orElse(null);
+        if (lease == null) {
+            lease = new CityLease(cityId);
+        } else if (!lease.isExpired(now) && !nodeId.equals(lease.getOwnerNode())) {
+            return lease;
+        }
+
+        lease.setOwnerNode(nodeId);
+        lease.setOwnerUrl(nodeUrl);
+        lease.setExpiresAt(new Date(now + leaseMillis));
+        try {
+            lease = leaseRepo.save(lease);
+        } catch (OptimisticLockingFailureException | DataIntegrityViolationException e) {
+            //another node claimed the city at the same moment
+            return leaseRepo.findById(cityId)
+                    .orElseThrow(() -> new IllegalStateException("lease of city " + cityId + " disappeared"));
+        }
+        acquired(cityId, now + leaseMillis);
+        return lease;
+    }
+
+    private void acquired(final Long cityId, final long until) {
+        if (ownedUntil.put(cityId, until) == null) {
+            log.info("node {} owns city {}", nodeId, cityId);
+            publisher.publishEvent(new CityOwnershipChangedEvent(cityId, true));
+        }
+    }
+
+    private void lost(final Long cityId) {
+        if (ownedUntil.remove(cityId) != null) {
+            log.warn("node {} lost city {}", nodeId, cityId);
+            publisher.publishEvent(new CityOwnershipChangedEvent(cityId, false));
+        }
+    }
+}
@@ -0,0 +1,22 @@
+package com.walt.cluster;
+
+/**
+ * published when this node acquires or loses the lease of a city.
+ */
+public class CityOwnershipChangedEvent {
+    private final Long cityId;
+    private final boolean acquired;
+
+    public CityOwnershipChangedEvent(final Long cityId, final boolean acquired) {
+        this.cityId = cityId;
+        this.acquired = acquired;
+    }
+
+    public Long getCityId() {
+        return cityId;
+    }
+
+    public boolean isAcquired() {
+        return acquired;
+    }
+}
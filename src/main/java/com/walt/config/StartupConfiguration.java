@@ -0,0 +1,30 @@
+package com.walt.config;
+
+import com.walt.WaltService;
+import com.walt.cluster.CityOwnership;
+import com.walt.dispatch.DispatchStateService;
+import com.walt.dispatch.OrderRequestStore;
+import com.walt.replica.ReplicaSync;
+import com.walt.report.LiveLeaderboard;
+import com.walt.report.RollupUpdater;
+import com.walt.web.OrderController;
+import org.springframework.boot.LazyInitializationExcludeFilter;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+@Configuration
+public class StartupConfiguration {
+
+    /**
+     * the dispatch path is created eagerly even with lazy initialization, so the first order doesn't pay for
+     * loading the dispatch state, request keys or the rollups. the beans with scheduled jobs (lease renewal,
+     * snapshots, rollup reconciling, replica sync, request key cleanup) start them on boot, and the leaderboards
+     * follow the deliveries from the first one.
+     */
+    @Bean
+    static LazyInitializationExcludeFilter dispatchBeans() {
+        return LazyInitializationExcludeFilter.forBeanTypes(WaltService.class, DispatchStateService.class,
+                CityOwnership.class, OrderController.class, OrderRequestStore.class, RollupUpdater.class,
+                ReplicaSync.class, LiveLeaderboard.class);
+    }
+}
@@ -0,0 +1,14 @@
+package com.walt.dao;
+
+import com.walt.model.CityLease;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.Date;
+import java.util.List;
+
+@Repository
+public interface CityLeaseRepository extends CrudRepository<CityLease, Long> {
+    List<CityLease> findAllByOwnerNode(final String ownerNode);
+    List<CityLease> findAllByExpiresAtBefore(final Date time);
+}
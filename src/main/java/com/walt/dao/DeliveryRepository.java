@@ -9,12 +9,72 @@ import org.springframework.data.repository.CrudRepository;
 import org.springframework.data.repository.query.Param;
 import org.springframework.stereotype.Repository;
 
+import java.util.Collection;
 import java.util.Date;
 import java.util.List;
 
 @Repository
 public interface DeliveryRepository extends CrudRepository<Delivery, Long> {
 
-}
+    /**
+     * @return driver id, driver's city id, delivery time, distance, end time and id of every delivery.
+     */
+    @Query("select d.driver.id, d.driver.city.id, d.deliveryTime, d.distance, d.endTime, d.id from Delivery d")
+    List<Object[]> findAllAssignments();
+
+    /**
+     * @return driver id, driver's city id, delivery time, distance, end time and id of the deliveries of a
+     * city's drivers.
+     */
+    @Query("select d.driver.id, d.driver.city.id, d.deliveryTime, d.distance, d.endTime, d.id from Delivery d " +
+            "where d.driver.city.id = :cityId")
+    List<Object[]> findAllAssignmentsByCity(@Param("cityId") final Long cityId);
+
+    /**
+     * @return driver id, driver's city id, delivery time, distance, end time and id of the deliveries of the
+     * drivers.
+     */
+    @Query("select d.driver.id, d.driver.city.id, d.deliveryTime, d.distance, d.endTime, d.id from Delivery d " +
+            "where d.driver.id in :driverIds")
+    List<Object[]> findAllAssignmentsByDrivers(@Param("driverIds") final Collection<Long> driverIds);
+
+    /**
+     * @return driver id, driver's city id, delivery time, distance, end time and id of the deliveries with a
+     * higher id.
+     */
+    @Query("select d.driver.id, d.driver.city.id, d.deliveryTime, d.distance, d.endTime, d.id from Delivery d " +
+            "where d.id > :id")
+    List<Object[]> findAllAssignmentsAfter(@Param("id") final long id);
+
+    /**
+     * @return the highest id and the number of the deliveries that have a driver, in a single row.
+     */
+    @Query("select coalesce(max(d.id), 0), count(d) from Delivery d where d.driver is not null")
+    List<Object[]> findWatermark();
 
+    /**
+     * @return driver id, number of deliveries and total distance of every driver with deliveries.
+     */
+    @Query("select d.driver.id, count(d), sum(d.distance) from Delivery d group by d.driver.id")
+    List<Object[]> sumByDriver();
+
+    /**
+     * @return driver's city id, driver id, number of deliveries and total distance of every driver with deliveries.
+     */
+    @Query("select d.driver.city.id, d.driver.id, count(d), sum(d.distance) from Delivery d " +
+            "group by d.driver.city.id, d.driver.id")
+    List<Object[]> sumByCityAndDriver();
+
+    /**
+     * @return driver id and distance of every delivery.
+     */
+    @Query("select d.driver.id, d.distance from Delivery d")
+    List<Object[]> findAllDriverDistances();
+
+    /**
+     * @return driver id and distance of the deliveries of a city's drivers.
+     */
+    @Query("select d.driver.id, d.distance from Delivery d where d.driver.city.id = :cityId")
+    List<Object[]> findAllDriverDistancesByCity(@Param("cityId") final Long cityId);
+}
 
@@ -0,0 +1,61 @@
+package com.walt.dao;
+
+import com.walt.model.DriverDailyRollup;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Collection;
+import java.util.List;
+
+@Repository
+public interface DriverDailyRollupRepository extends CrudRepository<DriverDailyRollup, Long> {
+
+    /**
+     * adds deliveries to the rollup row of a driver and day, creating the row if it doesn't exist - a single
+     * statement, so nodes adding to the same new row don't race on its unique key.
+     * H2 syntax (merge using, next value for) - like db/schema-h2.sql and the replica copies of ReplicaSync, it
+     * needs porting along with them when the app moves to another database.
+     * @return number of merged rows.
+     */
+    @Modifying
+    @Query(nativeQuery = true, value = "merge into driver_daily_rollup r using (select cast(:driverId as bigint) " +
+            "driver_id, cast(:cityId as bigint) city_id, cast(:epochDay as bigint) epoch_day, " +
+            "cast(:distance as bigint) total_distance, cast(:count as int) deliveries) v " +
+            "on r.driver_id = v.driver_id and r.epoch_day = v.epoch_day " +
+            "when matched then update set total_distance = r.total_distance + v.total_distance, " +
+            "deliveries = r.deliveries + v.deliveries " +
+            "when not matched then insert (id, driver_id, city_id, epoch_day, total_distance, deliveries) " +
+            "values (next value for hibernate_sequence, v.driver_id, v.city_id, v.epoch_day, v.total_distance, " +
+            "v.deliveries)")
+    int mergeDeliveries(@Param("driverId") final Long driverId, @Param("cityId") final Long cityId,
+                        @Param("epochDay") final long epochDay, @Param("distance") final long distance,
+                        @Param("count") final int count);
+
+    /**
+     * @return driver id, number of deliveries and total distance of every driver with rollups.
+     */
+    @Query("select r.driverId, sum(r.deliveries), sum(r.totalDistance) from DriverDailyRollup r group by r.driverId")
+    List<Object[]> sumByDriver();
+
+    @Modifying
+    @Query("delete from DriverDailyRollup r where r.driverId in :driverIds")
+    int deleteByDrivers(@Param("driverIds") final Collection<Long> driverIds);
+
+    /**
+     * @return driver id and total distance of every driver with deliveries between the given days.
+     */
+    @Query("select r.driverId, sum(r.totalDistance) from DriverDailyRollup r " +
+            "where r.epochDay between :fromDay and :toDay group by r.driverId")
+    List<Object[]> sumDistanceBetween(@Param("fromDay") final long fromDay, @Param("toDay") final long toDay);
+
+    /**
+     * @return driver id and total distance of the city's drivers with deliveries between the given days.
+     */
+    @Query("select r.driverId, sum(r.totalDistance) from DriverDailyRollup r " +
+            "where r.cityId = :cityId and r.epochDay between :fromDay and :toDay group by r.driverId")
+    List<Object[]> sumDistanceBetweenByCity(@Param("cityId") final Long cityId, @Param("fromDay") final long fromDay,
+                                            @Param("toDay") final long toDay);
+}
@@ -10,5 +10,6 @@ import java.util.List;
 @Repository
 public interface DriverRepository extends CrudRepository<Driver,Long> {
     List<Driver> findAllDriversByCity(final City city);
+    List<Driver> findAllByCityId(final Long cityId);
     Driver findByName(final String name);
 }
@@ -0,0 +1,12 @@
+package com.walt.dao;
+
+import com.walt.model.DriverShift;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.stereotype.Repository;
+
+import java.util.List;
+
+@Repository
+public interface DriverShiftRepository extends CrudRepository<DriverShift,Long> {
+    List<DriverShift> findAllByDriver_City_Id(final Long cityId);
+}
@@ -0,0 +1,21 @@
+package com.walt.dao;
+
+import com.walt.model.OrderRequestKey;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.repository.CrudRepository;
+import org.springframework.data.repository.query.Param;
+import org.springframework.stereotype.Repository;
+
+import java.util.Date;
+
+@Repository
+public interface OrderRequestKeyRepository extends CrudRepository<OrderRequestKey, String> {
+
+    /**
+     * @return number of deleted keys.
+     */
+    @Modifying
+    @Query("delete from OrderRequestKey k where k.createdAt < :before")
+    int deleteCreatedBefore(@Param("before") final Date before);
+}
@@ -0,0 +1,395 @@
+package com.walt.dispatch;
+
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.zone.ZoneOffsetTransition;
+import java.time.zone.ZoneRules;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * the drivers of a city as bitsets, so the drivers free at some hour are found a word at a time.
+ * every driver gets a fixed index - bit index of the sets below. for each hour of the week there is a set
+ * of the drivers on shift, and for each hour a set of the drivers that have a delivery during some of it.
+ * drivers on shift and not booked are free, 64 drivers per word and no branch per driver. only the booked
+ * ones need a look at their schedule, deliveries don't fill whole hours.
+ * indexes are never reused - a driver that leaves the city just loses its shifts, so booked sets stay valid.
+ * the booked sets are a ring over the last BOOKED_HOURS hours, memory doesn't follow the time span of the
+ * bookings. in hours before the ring every driver on shift is checked against its schedule.
+ * a selected driver can be reserved for the delivery until it's recorded, so orders of the city that run at the
+ * same time don't get the same driver. reservations expire in case their delivery is never saved.
+ * the lookups work on arrays only, a driver is selected without allocating.
+ */
+public class CityRoster {
+
+    private static final int HOURS_OF_WEEK = 7 * 24;
+    private static final long[] ALL_BOOKED = new long[0];
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+    private static final long DAY_MILLIS = 24 * HOUR_MILLIS;
+    /**
+     * hours the booked sets cover, about 6 months. hours before that are looked up in the schedules.
+     */
+    static final int BOOKED_HOURS = 4096;
+
+    private final ZoneId zone;
+    private final Map<Long, Integer> indexes = new HashMap<>();
+    private long[] driverIds = new long[64];
+    private DriverSchedule[] schedules = new DriverSchedule[64];
+    /**
+     * reservations of every driver index - start, end and expiry time of each, null if it has none.
+     */
+    private long[][] reserved = new long[64][];
+    private int size;
+    private final long[][] onShift = new long[HOURS_OF_WEEK][1];
+    /**
+     * bitsets of the drivers booked in the last BOOKED_HOURS hours up to the latest booked one, a ring indexed by
+     * hour modulo BOOKED_HOURS. bookedHour - the hour a slot holds, slots are reused as bookings move ahead.
+     */
+    private final long[][] booked = new long[BOOKED_HOURS][];
+    private final long[] bookedHour = new long[BOOKED_HOURS];
+    private long latestHour = Long.MIN_VALUE;
+    /**
+     * offset of the zone, valid between the last transition and the next one (daylight saving).
+     */
+    private long offsetMillis;
+    private long offsetFrom = 1;
+    private long offsetTo = 0;
+
+    public CityRoster(final ZoneId zone) {
+        this.zone = zone;
+    }
+
+    /**
+     * @return index of the driver, -1 if the driver isn't in the roster.
+     */
+    public synchronized int indexOf(final long driverId) {
+        final Integer index = indexes.get(driverId);
+        return index == null ? -1 : index;
+    }
+
+    public synchronized long driverAt(final int index) {
+        return driverIds[index];
+    }
+
+    public synchronized int size() {
+        return size;
+    }
+
+    /**
+     * adds a driver with no shifts - not free at any hour until setShifts.
+     * @param driverId - the added driver.
+     * @param schedule - deliveries the driver already has, in any city. null if none.
+     * @return index of the driver.
+     */
+    synchronized int add(final long driverId, final DriverSchedule schedule) {
+        final Integer existing = indexes.get(driverId);
+        if (existing != null) {
+            //back in the city - deliveries it got elsewhere meanwhile take its time here too
+            if (schedule != null && schedules[existing] != schedule) {
+                schedules[existing] = schedule;
+                bookAll(existing, schedule);
+            }
+            return existing;
+        }
+        final int index = size++;
+        if (index == driverIds.length) {
+            driverIds = Arrays.copyOf(driverIds, index * 2);
+            schedules = Arrays.copyOf(schedules, index * 2);
+            reserved = Arrays.copyOf(reserved, index * 2);
+        }
+        driverIds[index] = driverId;
+        indexes.put(driverId, index);
+        final int words = words(size);
+        if (onShift[0].length < words) {
+            for (int h = 0; h < HOURS_OF_WEEK; h++) {
+                onShift[h] = Arrays.copyOf(onShift[h], words * 2);
+            }
+        }
+        //counts and workload are read from the schedule even when no delivery of it is left to book
+        schedules[index] = schedule;
+        if (schedule != null) {
+            bookAll(index, schedule);
+        }
+        return index;
+    }
+
+    private void bookAll(final int index, final DriverSchedule schedule) {
+        final long[] intervals = schedule.getIntervals();
+        for (int i = 0; i < intervals.length; i += 2) {
+            book(index, schedule, intervals[i], intervals[i + 1]);
+        }
+    }
+
+    /**
+     * @param index - index of a driver.
+     * @param days - bitset of the hours on shift per day, Monday first. null when on shift around the clock.
+     */
+    synchronized void setShifts(final int index, final int[] days) {
+        final int word = index >>> 6;
+        final long bit = 1L << index;
+        for (int d = 0; d < 7; d++) {
+            final int hours = days == null ? -1 : days[d];
+            for (int h = 0; h < 24; h++) {
+                if ((hours & (1 << h)) != 0) {
+                    onShift[d * 24 + h][word] |= bit;
+                } else {
+                    onShift[d * 24 + h][word] &= ~bit;
+                }
+            }
+        }
+    }
+
+    /**
+     * marks a driver as booked in the hours of a delivery.
+     * @param index - index of a driver.
+     * @param schedule - schedule of the driver, the delivery is already in it.
+     * @param start - start of the delivery in millis.
+     * @param end - end of the delivery in millis.
+     */
+    synchronized void book(final int index, final DriverSchedule schedule, final long start, final long end) {
+        schedules[index] = schedule;
+        for (long hourStart = hourStart(start); hourStart < end; hourStart += HOUR_MILLIS) {
+            final long[] hour = bookedSlot(Math.floorDiv(hourStart, HOUR_MILLIS), index);
+            if (hour != null) {
+                hour[index >>> 6] |= 1L << index;
+            }
+        }
+    }
+
+    /**
+     * @param index - index of the driver that is booked.
+     * @return booked set of the hour, holding the index - reused from an older hour or grown if needed.
+     * null when the hour is older than the ring, the schedules have it.
+     */
+    private long[] bookedSlot(final long hour, final int index) {
+        if (latestHour != Long.MIN_VALUE && hour <= latestHour - BOOKED_HOURS) {
+            return null;
+        }
+        latestHour = Math.max(latestHour, hour);
+        final int slot = (int) Math.floorMod(hour, (long) BOOKED_HOURS);
+        long[] bits = booked[slot];
+        if (bits == null || bookedHour[slot] != hour) {
+            bits = new long[words(size)];
+            booked[slot] = bits;
+            bookedHour[slot] = hour;
+        } else if (bits.length <= index >>> 6) {
+            bits = Arrays.copyOf(bits, words(size));
+            booked[slot] = bits;
+        }
+        return bits;
+    }
+
+    /**
+     * @return booked set of the hour, null if nobody is booked in it, all drivers if the hour is older than the
+     * ring and everyone has to be checked against the schedules.
+     */
+    private long[] bookedIn(final long hourStart) {
+        final long hour = Math.floorDiv(hourStart, HOUR_MILLIS);
+        if (latestHour != Long.MIN_VALUE && hour <= latestHour - BOOKED_HOURS) {
+            return ALL_BOOKED;
+        }
+        final int slot = (int) Math.floorMod(hour, (long) BOOKED_HOURS);
+        return booked[slot] != null && bookedHour[slot] == hour ? booked[slot] : null;
+    }
+
+    /**
+     * @param start - start of a delivery, in millis.
+     * @param end - end of the delivery, in millis.
+     * @return two bitsets of the drivers on shift in all the hours of the delivery - the first of drivers with
+     * no other delivery in those hours, the second of drivers that have one and may or may not be free.
+     */
+    public synchronized long[][] candidates(final long start, final long end) {
+        final int words = words(size);
+        final long[] free = new long[words];
+        final long[] booked = new long[words];
+        for (int w = 0; w < words; w++) {
+            free[w] = onShiftIn(w, start, end);
+            booked[w] = bookedIn(w, start, end) & free[w];
+            free[w] &= ~booked[w];
+        }
+        return new long[][]{free, booked};
+    }
+
+    /**
+     * the free driver with the least deliveries or workload, straight over the bitsets and schedules.
+     * @param start - start of a delivery, in millis.
+     * @param end - end of the delivery, in millis.
+     * @param byCount - balance by the number of deliveries instead of the workload.
+     * @param decayMillis - decay of the workload.
+     * @return index of the driver, -1 if nobody is free.
+     */
+    synchronized int select(final long start, final long end, final boolean byCount, final long decayMillis) {
+        final long now = System.currentTimeMillis();
+        int best = -1;
+        double bestLoad = Double.MAX_VALUE;
+        final int words = words(size);
+        for (int w = 0; w < words; w++) {
+            final long onShift = onShiftIn(w, start, end);
+            final long booked = bookedIn(w, start, end) & onShift;
+            for (long bits = onShift; bits != 0; bits &= bits - 1) {
+                final int bit = Long.numberOfTrailingZeros(bits);
+                final DriverSchedule schedule = schedules[w * 64 + bit];
+                if ((booked & (1L << bit)) != 0 && schedule != null && !schedule.isFree(start, end)) {
+                    continue;
+                }
+                if (isReserved(w * 64 + bit, start, end, now)) {
+                    continue;
+                }
+                final double load = schedule == null ? 0
+                        : byCount ? schedule.getDeliveries() : schedule.getWorkload(start, decayMillis);
+                if (load < bestLoad) {
+                    best = w * 64 + bit;
+                    bestLoad = load;
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * selects a driver like select and reserves it for the delivery, in one step - an order running at the same time
+     * sees the reservation. the reservation is released when the delivery is recorded, by release, or once it
+     * expires.
+     * @param expiresAt - time the reservation expires, in millis.
+     * @return index of the driver, -1 if nobody is free.
+     */
+    synchronized int reserve(final long start, final long end, final boolean byCount, final long decayMillis,
+                             final long expiresAt) {
+        final int index = select(start, end, byCount, decayMillis);
+        if (index >= 0) {
+            final long now = System.currentTimeMillis();
+            long[] current = reserved[index];
+            int kept = 0;
+            if (current != null) {
+                for (int i = 0; i < current.length; i += 3) {
+                    if (current[i + 2] > now) {
+                        current[kept++] = current[i];
+                        current[kept++] = current[i + 1];
+                        current[kept++] = current[i + 2];
+                    }
+                }
+            }
+            current = current == null ? new long[3] : Arrays.copyOf(current, kept + 3);
+            current[kept] = start;
+            current[kept + 1] = end;
+            current[kept + 2] = expiresAt;
+            reserved[index] = current;
+        }
+        return index;
+    }
+
+    /**
+     * releases the reservation of a driver for a delivery, if it has one.
+     * @param index - index of the driver.
+     * @param start - start of the delivery, in millis.
+     * @param end - end of the delivery, in millis.
+     */
+    synchronized void release(final int index, final long start, final long end) {
+        final long[] current = reserved[index];
+        if (current == null) {
+            return;
+        }
+        for (int i = 0; i < current.length; i += 3) {
+            if (current[i] == start && current[i + 1] == end) {
+                if (current.length == 3) {
+                    reserved[index] = null;
+                } else {
+                    final long[] rest = Arrays.copyOf(current, current.length - 3);
+                    System.arraycopy(current, i + 3, rest, i, current.length - i - 3);
+                    reserved[index] = rest;
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * @return true if the driver has a reservation overlapping [start, end) that didn't expire.
+     */
+    private boolean isReserved(final int index, final long start, final long end, final long now) {
+        final long[] current = reserved[index];
+        if (current != null) {
+            for (int i = 0; i < current.length; i += 3) {
+                if (current[i] < end && start < current[i + 1] && current[i + 2] > now) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @return word w of the drivers on shift in every hour of [start, end).
+     */
+    private long onShiftIn(final int w, final long start, final long end) {
+        long bits = -1L;
+        for (long hourStart = hourStart(start); hourStart < Math.max(end, start + 1); hourStart += HOUR_MILLIS) {
+            bits &= onShift[hourOfWeek(hourStart)][w];
+        }
+        return bits;
+    }
+
+    /**
+     * @return word w of the drivers with a delivery in some hour of [start, end).
+     */
+    private long bookedIn(final int w, final long start, final long end) {
+        long bits = 0;
+        for (long hourStart = hourStart(start); hourStart < end; hourStart += HOUR_MILLIS) {
+            final long[] hour = bookedIn(hourStart);
+            if (hour == ALL_BOOKED) {
+                return -1L;
+            }
+            if (hour != null && w < hour.length) {
+                bits |= hour[w];
+            }
+        }
+        return bits;
+    }
+    //---------------------------------------------------------------------------
+    /**
+     * @param time - a time in millis.
+     * @return start of the local hour of the time, in millis.
+     */
+    private long hourStart(final long time) {
+        final long offset = offsetAt(time);
+        return Math.floorDiv(time + offset, HOUR_MILLIS) * HOUR_MILLIS - offset;
+    }
+
+    /**
+     * @return local hour of the week of a time, 0 - Monday 0:00.
+     */
+    private int hourOfWeek(final long time) {
+        final long local = time + offsetAt(time);
+        //the epoch day was a Thursday
+        final int dayOfWeek = (int) Math.floorMod(Math.floorDiv(local, DAY_MILLIS) + 3, 7);
+        return dayOfWeek * 24 + (int) (Math.floorMod(local, DAY_MILLIS) / HOUR_MILLIS);
+    }
+
+    /**
+     * @return offset of the zone at the time, looked up again only when crossing a transition.
+     */
+    private long offsetAt(final long time) {
+        if (time < offsetFrom || time >= offsetTo) {
+            final ZoneRules rules = zone.getRules();
+            final Instant instant = Instant.ofEpochMilli(time);
+            final ZoneOffsetTransition previous = rules.previousTransition(instant);
+            final ZoneOffsetTransition next = rules.nextTransition(instant);
+            offsetMillis = rules.getOffset(instant).getTotalSeconds() * 1000L;
+            offsetFrom = previous == null ? Long.MIN_VALUE : Math.min(time, previous.toEpochSecond() * 1000);
+            offsetTo = next == null ? Long.MAX_VALUE : next.toEpochSecond() * 1000;
+        }
+        return offsetMillis;
+    }
+
+    /**
+     * @return true if the bit of the index is set.
+     */
+    public static boolean isSet(final long[] bits, final int index) {
+        return index >= 0 && index >>> 6 < bits.length && (bits[index >>> 6] & (1L << index)) != 0;
+    }
+
+    private static int words(final int bits) {
+        return (bits + 63) >>> 6;
+    }
+}
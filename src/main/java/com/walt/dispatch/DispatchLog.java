@@ -0,0 +1,131 @@
+package com.walt.dispatch;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * append only, memory mapped log of driver assignments.
+ * the file starts with a header of the log generation and the number of committed records, followed by
+ * fixed size records of deliveryId, driverId, cityId, deliveryTime, endTime and distance. a record is committed only
+ * after the count in the header is updated, so a torn write at the end of the file is ignored on replay, and a
+ * file cut in the middle of its last record loses that record only.
+ * a record with a delivery time of RESET forgets the deliveries of its driver, the records after it are the
+ * deliveries the driver still has.
+ */
+public class DispatchLog implements Closeable {
+    private static final int HEADER_SIZE = 16;
+    static final int RECORD_SIZE = 48;
+    private static final long RESET = Long.MIN_VALUE;
+    private static final int INITIAL_RECORDS = 64 * 1024;
+
+    private final FileChannel channel;
+    private final boolean force;
+    private MappedByteBuffer buffer;
+    private long generation;
+    private long count;
+
+    /**
+     * @param file - the log file, created if missing.
+     * @param force - flush every append to the disk, survives power loss and not only a crash of the process.
+     */
+    public DispatchLog(final Path file, final boolean force) throws IOException {
+        this.force = force;
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        final long size = Math.max(channel.size(), HEADER_SIZE + (long) INITIAL_RECORDS * RECORD_SIZE);
+        final long written = channel.size();
+        buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        generation = buffer.getLong(0);
+        count = buffer.getLong(8);
+        if (count < 0) {
+            throw new IOException("corrupted dispatch log " + file);
+        }
+        if (written >= HEADER_SIZE && HEADER_SIZE + count * RECORD_SIZE > written) {
+            //mapping grew the file with zeros in place of the records that were cut off
+            count = (written - HEADER_SIZE) / RECORD_SIZE;
+            buffer.putLong(8, count);
+        }
+    }
+
+    public synchronized long getGeneration() {
+        return generation;
+    }
+
+    public synchronized long getCount() {
+        return count;
+    }
+    //---------------------------------------------------------------------------
+    /**
+     * appends an assignment to the log.
+     * @param deliveryId - id of the delivery, 0 if the record isn't a delivery.
+     */
+    public synchronized void append(final long deliveryId, final long driverId, final long cityId,
+                                    final long deliveryTime, final long endTime, final double distance)
+            throws IOException {
+        final long position = HEADER_SIZE + count * RECORD_SIZE;
+        if (position + RECORD_SIZE > buffer.capacity()) {
+            buffer.force();
+            buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, (long) buffer.capacity() * 2);
+        }
+        final int p = (int) position;
+        buffer.putLong(p, deliveryId);
+        buffer.putLong(p + 8, driverId);
+        buffer.putLong(p + 16, cityId);
+        buffer.putLong(p + 24, deliveryTime);
+        buffer.putLong(p + 32, endTime);
+        buffer.putDouble(p + 40, distance);
+        count++;
+        buffer.putLong(8, count);
+        if (force) {
+            buffer.force();
+        }
+    }
+
+    /**
+     * appends a reset of a driver, its deliveries are appended after it.
+     */
+    public synchronized void appendReset(final long driverId) throws IOException {
+        append(0, driverId, 0, RESET, RESET, 0);
+    }
+
+    /**
+     * replays the committed records into the given state.
+     * @param from - index of the first record to replay.
+     * @param state - the state to update.
+     * @return highest delivery id of the replayed records, 0 if there are none.
+     */
+    public synchronized long replay(final long from, final DispatchState state) {
+        long maxDeliveryId = 0;
+        for (long i = from; i < count; i++) {
+            final int p = (int) (HEADER_SIZE + i * RECORD_SIZE);
+            maxDeliveryId = Math.max(maxDeliveryId, buffer.getLong(p));
+            if (buffer.getLong(p + 24) == RESET) {
+                state.reset(buffer.getLong(p + 8));
+                continue;
+            }
+            state.record(buffer.getLong(p + 8), buffer.getLong(p + 16), buffer.getLong(p + 24),
+                    buffer.getLong(p + 32), buffer.getDouble(p + 40));
+        }
+        return maxDeliveryId;
+    }
+
+    /**
+     * starts a new generation of the log once its records are covered by a snapshot.
+     */
+    public synchronized void roll(final long newGeneration) {
+        generation = newGeneration;
+        count = 0;
+        buffer.putLong(8, 0);
+        buffer.putLong(0, newGeneration);
+        buffer.force();
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        buffer.force();
+        channel.close();
+    }
+}
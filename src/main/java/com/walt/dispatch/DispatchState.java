@@ -0,0 +1,306 @@
+package com.walt.dispatch;
+
+import java.io.DataInput;
+import java.io.DataOutput;
+import java.io.IOException;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * driver schedules and counts kept in memory, so assigning a driver doesn't scan the deliveries table.
+ * plain class - the spring side (events, log, snapshots) lives in DispatchStateService.
+ */
+public class DispatchState {
+
+    /**
+     * bumped whenever writeTo or the records of DispatchLog change, older snapshots are ignored and the
+     * log is rolled over after rebuilding from the database.
+     */
+    private static final int SNAPSHOT_FORMAT = 6;
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+    private final ZoneId zone;
+    private final long workloadDecayMillis;
+    private final double workloadPerKm;
+    private final Map<Long, DriverSchedule> schedules = new ConcurrentHashMap<>();
+    private final Map<Long, CityRoster> rosters = new ConcurrentHashMap<>();
+
+    public DispatchState() {
+        this(ZoneId.systemDefault(), 7 * DAY_MILLIS, 0.1);
+    }
+
+    /**
+     * @param zone - zone of the hours of the shifts.
+     * @param workloadDecayMillis - the workload of a delivery shrinks by e after this time.
+     * @param workloadPerKm - workload of a Km, on top of 1 per delivery.
+     */
+    public DispatchState(final ZoneId zone, final long workloadDecayMillis, final double workloadPerKm) {
+        this.zone = zone;
+        this.workloadDecayMillis = workloadDecayMillis;
+        this.workloadPerKm = workloadPerKm;
+    }
+
+    /**
+     * adds a delivery to the history of its driver.
+     * @param driverId - the assigned driver.
+     * @param cityId - the driver's city.
+     * @param deliveryTime - start time of the delivery, in millis.
+     * @param endTime - end time of the delivery, in millis.
+     * @param distance - distance of the delivery in Km.
+     * @return the updated schedule of the driver.
+     */
+    public DriverSchedule record(final long driverId, final long cityId, final long deliveryTime,
+                                 final long endTime, final double distance) {
+        final DriverSchedule schedule = schedules.computeIfAbsent(driverId, id -> new DriverSchedule(id, cityId));
+        schedule.record(deliveryTime, endTime, distance, 1 + workloadPerKm * distance, workloadDecayMillis);
+        //not holding the schedule here - the roster locks schedules while adding drivers
+        final CityRoster roster = rosters.get(cityId);
+        if (roster != null) {
+            final int index = roster.indexOf(driverId);
+            if (index >= 0) {
+                roster.book(index, schedule, deliveryTime, endTime);
+                //the schedule has the delivery now, the reservation made when the driver was selected is done
+                roster.release(index, deliveryTime, endTime);
+            }
+        }
+        return schedule;
+    }
+
+    /**
+     * forgets the deliveries of a driver, before the ones still in the database are recorded again.
+     * the hours booked in the roster stay, they are only a hint and the schedule is checked anyway.
+     * @param driverId - a driver whose deliveries were updated or removed.
+     */
+    public void reset(final long driverId) {
+        final DriverSchedule schedule = schedules.get(driverId);
+        if (schedule != null) {
+            schedule.reset();
+        }
+    }
+
+    /**
+     * @param schedule - schedule of a driver.
+     * @param time - time of a new delivery, in millis.
+     * @return recent deliveries of the driver weighted by their distance, older ones count less.
+     */
+    public double workloadOf(final DriverSchedule schedule, final long time) {
+        return schedule.getWorkload(time, workloadDecayMillis);
+    }
+
+    /**
+     * @param roster - roster of a city.
+     * @param start - start of a delivery, in millis.
+     * @param end - end of the delivery, in millis.
+     * @return bitset of the roster's drivers that are on shift and have no delivery overlapping that time.
+     */
+    public long[] freeDrivers(final CityRoster roster, final long start, final long end) {
+        final long[][] candidates = roster.candidates(start, end);
+        final long[] free = candidates[0];
+        final long[] booked = candidates[1];
+        for (int w = 0; w < booked.length; w++) {
+            for (long bits = booked[w]; bits != 0; bits &= bits - 1) {
+                final int bit = Long.numberOfTrailingZeros(bits);
+                final DriverSchedule schedule = schedules.get(roster.driverAt(w * 64 + bit));
+                if (schedule == null || schedule.isFree(start, end)) {
+                    free[w] |= 1L << bit;
+                }
+            }
+        }
+        return free;
+    }
+
+    /**
+     * @param roster - roster of a city.
+     * @param start - start of a delivery, in millis.
+     * @param end - end of the delivery, in millis.
+     * @param byCount - balance by the number of deliveries instead of the workload.
+     * @return roster index of the free driver with the least deliveries or workload, -1 if nobody is free.
+     * allocates nothing.
+     */
+    public int selectDriver(final CityRoster roster, final long start, final long end, final boolean byCount) {
+        return roster.select(start, end, byCount, workloadDecayMillis);
+    }
+
+    /**
+     * like selectDriver, and reserves the driver for the delivery until it's recorded or released, so orders of
+     * the city that run at the same time don't get the same driver.
+     * @param expiresAt - the reservation is ignored after this time, in millis - its delivery was never saved.
+     * @return roster index of the reserved driver, -1 if nobody is free.
+     */
+    public int reserveDriver(final CityRoster roster, final long start, final long end, final boolean byCount,
+                             final long expiresAt) {
+        return roster.reserve(start, end, byCount, workloadDecayMillis, expiresAt);
+    }
+
+    /**
+     * releases a reservation of reserveDriver whose delivery won't be recorded.
+     * @param cityId - city of the roster the driver was reserved in.
+     * @param driverId - the reserved driver.
+     * @param start - start of the delivery, in millis.
+     * @param end - end of the delivery, in millis.
+     */
+    public void release(final long cityId, final long driverId, final long start, final long end) {
+        final CityRoster roster = rosters.get(cityId);
+        if (roster != null) {
+            final int index = roster.indexOf(driverId);
+            if (index >= 0) {
+                roster.release(index, start, end);
+            }
+        }
+    }
+
+    /**
+     * @param driverId - a driver.
+     * @return the driver's schedule, null if the driver has no deliveries.
+     */
+    public DriverSchedule getSchedule(final long driverId) {
+        return schedules.get(driverId);
+    }
+
+    /**
+     * @return schedules of all the drivers that have deliveries.
+     */
+    public Collection<DriverSchedule> getSchedules() {
+        return Collections.unmodifiableCollection(schedules.values());
+    }
+
+    /**
+     * @return schedules of the drivers of a city that have deliveries.
+     */
+    public List<DriverSchedule> schedulesOf(final long cityId) {
+        final List<DriverSchedule> city = new ArrayList<>();
+        for (final DriverSchedule s : schedules.values()) {
+            if (s.getCityId() == cityId) {
+                city.add(s);
+            }
+        }
+        return city;
+    }
+
+    /**
+     * @return the roster of a city, null before its drivers were loaded.
+     */
+    public CityRoster getRoster(final long cityId) {
+        return rosters.get(cityId);
+    }
+
+    /**
+     * sets the drivers of a city and their shifts. drivers that left the city stay in the roster without shifts.
+     * @param cityId - the city.
+     * @param driverIds - all the drivers of the city.
+     * @param shifts - key - driver id, value - bitset of the hours on shift per day, Monday first.
+     *               drivers without a value are on shift around the clock.
+     * @return the roster of the city.
+     */
+    public CityRoster refreshRoster(final long cityId, final Collection<Long> driverIds,
+                                    final Map<Long, int[]> shifts) {
+        final CityRoster roster = rosters.computeIfAbsent(cityId, id -> new CityRoster(zone));
+        synchronized (roster) {
+            final Set<Long> current = new HashSet<>(driverIds);
+            for (int i = 0; i < roster.size(); i++) {
+                if (!current.contains(roster.driverAt(i))) {
+                    roster.setShifts(i, new int[7]);
+                }
+            }
+            for (final Long driverId : driverIds) {
+                final DriverSchedule schedule = schedules.get(driverId);
+                if (schedule != null && schedule.getCityId() != cityId) {
+                    //moved here from another city, the deliveries it already has still take its time
+                    schedule.moveTo(cityId);
+                }
+                final int index = roster.add(driverId, schedule);
+                roster.setShifts(index, shifts.get(driverId));
+            }
+        }
+        return roster;
+    }
+
+    /**
+     * forgets the deliveries that ended by the time in every schedule, so memory and snapshots don't grow
+     * with the history. the booked hours of the rosters are a ring and forget on their own.
+     * @param before - no delivery starting before this time is assigned anymore, in millis.
+     * @return number of forgotten deliveries.
+     */
+    public long prune(final long before) {
+        long pruned = 0;
+        for (final DriverSchedule s : schedules.values()) {
+            pruned += s.prune(before);
+        }
+        return pruned;
+    }
+
+    public int size() {
+        return schedules.size();
+    }
+
+    public long totalDeliveries() {
+        long total = 0;
+        for (final DriverSchedule s : schedules.values()) {
+            total += s.getDeliveries();
+        }
+        return total;
+    }
+
+    /**
+     * forgets the drivers of a city, before it's reloaded from the database.
+     */
+    public void clearCity(final long cityId) {
+        schedules.values().removeIf(s -> s.getCityId() == cityId);
+        rosters.remove(cityId);
+    }
+
+    public void clear() {
+        schedules.clear();
+        rosters.clear();
+    }
+    //---------------------------------------------------------------------------
+    /**
+     * writes all the schedules, used for snapshots. rosters aren't written, they are rebuilt from the
+     * drivers in the database and the booked hours of the schedules.
+     */
+    public void writeTo(final DataOutput out) throws IOException {
+        out.writeInt(SNAPSHOT_FORMAT);
+        out.writeInt(schedules.size());
+        for (final DriverSchedule s : schedules.values()) {
+            final long[] intervals = s.getIntervals();
+            out.writeLong(s.getDriverId());
+            out.writeLong(s.getCityId());
+            out.writeInt(s.getDeliveries());
+            out.writeLong(s.getTotalDistance());
+            out.writeDouble(s.getWorkload());
+            out.writeLong(s.getWorkloadAsOf());
+            out.writeInt(intervals.length);
+            for (final long time : intervals) {
+                out.writeLong(time);
+            }
+        }
+    }
+
+    /**
+     * replaces the current schedules with the ones written by writeTo.
+     * @return false if the data was written in another format, nothing is read then.
+     */
+    public boolean readFrom(final DataInput in) throws IOException {
+        if (in.readInt() != SNAPSHOT_FORMAT) {
+            return false;
+        }
+        clear();
+        final int size = in.readInt();
+        for (int i = 0; i < size; i++) {
+            final long driverId = in.readLong();
+            final long cityId = in.readLong();
+            final int deliveries = in.readInt();
+            final long totalDistance = in.readLong();
+            final double workload = in.readDouble();
+            final long workloadAsOf = in.readLong();
+            final long[] intervals = new long[in.readInt()];
+            for (int t = 0; t < intervals.length; t++) {
+                intervals[t] = in.readLong();
+            }
+            schedules.put(driverId, new DriverSchedule(driverId, cityId, deliveries, totalDistance,
+                    workload, workloadAsOf, intervals));
+        }
+        return true;
+    }
+}
@@ -0,0 +1,552 @@
+package com.walt.dispatch;
+
+import com.walt.cluster.CityOwnershipChangedEvent;
+import com.walt.dao.DeliveryRepository;
+import com.walt.dao.DriverRepository;
+import com.walt.dao.DriverShiftRepository;
+import com.walt.event.DeliveriesImportedEvent;
+import com.walt.event.DeliveryChangedEvent;
+import com.walt.event.DeliveryRecordedEvent;
+import com.walt.event.DriverChangedEvent;
+import com.walt.event.DriverTotalChangedEvent;
+import com.walt.model.Delivery;
+import com.walt.model.Driver;
+import com.walt.model.DriverShift;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.*;
+import java.nio.file.*;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * owns the in-memory dispatch state and keeps it in line with the database.
+ * every committed delivery is appended to a memory mapped log and applied to the state. snapshots of the
+ * state are written periodically, so on startup the state is rebuilt from the last snapshot plus the tail
+ * of the log instead of scanning the deliveries table. the database stays the system of record - when the
+ * log is disabled, missing or doesn't match the snapshot the state is rebuilt from it. a restored state is
+ * checked against its watermark - the highest delivery id and the number of deliveries - and the deliveries
+ * stored after that id are applied. only when it still doesn't match, it's checked driver by driver and the cities
+ * that don't match are reloaded.
+ */
+@Service
+public class DispatchStateService {
+
+    private static final Logger log = LoggerFactory.getLogger(DispatchStateService.class);
+    private static final String LOG_FILE = "dispatch.log";
+    private static final String SNAPSHOT_FILE = "dispatch.snapshot";
+
+    @Value("${walt.dispatch.log.enabled:false}")
+    private boolean logEnabled;
+    @Value("${walt.dispatch.log.dir:data/dispatch}")
+    private String logDir;
+    @Value("${walt.dispatch.log.force:false}")
+    private boolean forceWrites;
+    @Value("${walt.dispatch.workload.decay-days:7}")
+    private double workloadDecayDays;
+    @Value("${walt.dispatch.history-days:2}")
+    private double historyDays;
+    @Value("${walt.dispatch.workload.per-km:0.1}")
+    private double workloadPerKm;
+    @Value("${walt.dispatch.reservation-ms:30000}")
+    private long reservationMillis;
+
+    @Autowired
+    private DeliveryRepository deliveryRepo;
+    @Autowired
+    private DriverRepository driverRepo;
+    @Autowired
+    private DriverShiftRepository shiftRepo;
+    @Autowired
+    private ApplicationEventPublisher publisher;
+
+    private DispatchState state;
+    private DispatchLog dispatchLog;
+    /**
+     * key - city id, value - the drivers of the city's roster by roster index.
+     */
+    private final Map<Long, Driver[]> rosterDrivers = new ConcurrentHashMap<>();
+    /**
+     * highest delivery id applied to the state, written to the snapshots.
+     */
+    private final AtomicLong maxDeliveryId = new AtomicLong();
+
+    public DispatchState getState() {
+        return state;
+    }
+
+    @PostConstruct
+    private void load() throws IOException {
+        final long start = System.currentTimeMillis();
+        state = new DispatchState(ZoneId.systemDefault(), (long) (workloadDecayDays * 24 * 60 * 60 * 1000),
+                workloadPerKm);
+        if (!logEnabled) {
+            rebuildFromDatabase();
+        } else {
+            Files.createDirectories(Paths.get(logDir));
+            dispatchLog = new DispatchLog(Paths.get(logDir, LOG_FILE), forceWrites);
+            if (!restoreFromSnapshot()) {
+                synchronized (dispatchLog) {
+                    rebuildFromDatabase();
+                    startGeneration();
+                }
+            }
+        }
+        refreshRosters();
+        log.info("dispatch state of {} drivers loaded in {} ms", state.size(), System.currentTimeMillis() - start);
+    }
+    //---------------------------------------------------------------------------
+    /**
+     * applies a committed delivery to the state, after writing it to the log.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDeliveryRecorded(final DeliveryRecordedEvent e) throws IOException {
+        record(e);
+    }
+
+    @EventListener
+    public void onDeliveriesImported(final DeliveriesImportedEvent imported) throws IOException {
+        for (final DeliveryRecordedEvent e : imported.getDeliveries()) {
+            record(e);
+        }
+    }
+
+    private void record(final DeliveryRecordedEvent e) throws IOException {
+        final DriverSchedule schedule;
+        if (dispatchLog == null) {
+            schedule = state.record(e.getDriverId(), e.getCityId(), e.getDeliveryTime(), e.getEndTime(),
+                    e.getDistance());
+        } else {
+            synchronized (dispatchLog) {
+                dispatchLog.append(e.getDeliveryId(), e.getDriverId(), e.getCityId(), e.getDeliveryTime(),
+                        e.getEndTime(), e.getDistance());
+                schedule = state.record(e.getDriverId(), e.getCityId(), e.getDeliveryTime(), e.getEndTime(),
+                        e.getDistance());
+            }
+        }
+        maxDeliveryId.accumulateAndGet(e.getDeliveryId(), Math::max);
+        publishTotal(schedule);
+    }
+
+    /**
+     * a delivery was updated or removed, its drivers are reloaded from the database. the reload is logged, so a
+     * restored state doesn't book the hours the delivery no longer takes either.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDeliveryChanged(final DeliveryChangedEvent e) throws IOException {
+        for (final Long driverId : e.getDriverIds()) {
+            reload(driverId);
+        }
+    }
+
+    private void reload(final long driverId) throws IOException {
+        final List<Object[]> assignments = deliveryRepo.findAllAssignmentsByDrivers(Collections.singleton(driverId));
+        if (dispatchLog == null) {
+            state.reset(driverId);
+            apply(assignments);
+        } else {
+            synchronized (dispatchLog) {
+                dispatchLog.appendReset(driverId);
+                state.reset(driverId);
+                for (final Object[] row : assignments) {
+                    final long start = ((Date) row[2]).getTime();
+                    final long end = endOf(row);
+                    dispatchLog.append((Long) row[5], (Long) row[0], (Long) row[1], start, end, (Double) row[3]);
+                    state.record((Long) row[0], (Long) row[1], start, end, (Double) row[3]);
+                }
+            }
+        }
+        final DriverSchedule schedule = state.getSchedule(driverId);
+        if (schedule != null) {
+            publishTotal(schedule, true);
+        }
+    }
+
+    /**
+     * a city taken over from another node is reloaded, its deliveries were recorded by that node.
+     */
+    @EventListener
+    public void onOwnershipChanged(final CityOwnershipChangedEvent e) {
+        if (e.isAcquired()) {
+            state.clearCity(e.getCityId());
+            apply(deliveryRepo.findAllAssignmentsByCity(e.getCityId()));
+            refreshRoster(e.getCityId(), driverRepo.findAllByCityId(e.getCityId()),
+                    shiftRepo.findAllByDriver_City_Id(e.getCityId()));
+            for (final DriverSchedule schedule : state.schedulesOf(e.getCityId())) {
+                publishTotal(schedule);
+            }
+        }
+    }
+
+    /**
+     * drivers or shifts changed, the rosters they're in are reloaded from the database.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDriverChanged(final DriverChangedEvent e) {
+        if (e.getCityId() == null) {
+            refreshRosters();
+        } else {
+            refreshRoster(e.getCityId(), driverRepo.findAllByCityId(e.getCityId()),
+                    shiftRepo.findAllByDriver_City_Id(e.getCityId()));
+        }
+    }
+
+    /**
+     * @param cityId - a city.
+     * @param drivers - the drivers of the city.
+     * @return roster of the city, with the given drivers in it.
+     */
+    public CityRoster getRoster(final long cityId, final List<Driver> drivers) {
+        final CityRoster roster = state.getRoster(cityId);
+        if (roster != null) {
+            boolean missing = false;
+            for (final Driver d : drivers) {
+                missing |= roster.indexOf(d.getId()) < 0;
+            }
+            if (!missing) {
+                return roster;
+            }
+        }
+        //a driver committed in a transaction that is still running its listeners
+        return refreshRoster(cityId, drivers, shiftRepo.findAllByDriver_City_Id(cityId));
+    }
+
+    /**
+     * picks the driver of a delivery from the roster of the city as last loaded, without going to the
+     * database. the driver is reserved for the delivery, an order of the city running at the same time gets
+     * another one. the reservation ends once the delivery is recorded, when the surrounding transaction rolls
+     * back, by release, or after walt.dispatch.reservation-ms.
+     * @param cityId - city of the delivery.
+     * @param start - start of the delivery, in millis.
+     * @param end - end of the delivery, in millis.
+     * @param byCount - balance by the number of deliveries instead of the workload.
+     * @return the free driver with the least deliveries or workload, null if nobody is free.
+     */
+    public Driver selectDriver(final long cityId, final long start, final long end, final boolean byCount) {
+        final CityRoster roster = state.getRoster(cityId);
+        final Driver[] drivers = rosterDrivers.get(cityId);
+        if (roster == null || drivers == null) {
+            return null;
+        }
+        final int index = state.reserveDriver(roster, start, end, byCount,
+                System.currentTimeMillis() + reservationMillis);
+        if (index < 0) {
+            return null;
+        }
+        final long driverId = roster.driverAt(index);
+        if (index >= drivers.length) {
+            //added to the roster after the drivers were listed
+            state.release(cityId, driverId, start, end);
+            return null;
+        }
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+                @Override
+                public void afterCompletion(final int status) {
+                    if (status != STATUS_COMMITTED) {
+                        state.release(cityId, driverId, start, end);
+                    }
+                }
+            });
+        }
+        return drivers[index];
+    }
+
+    /**
+     * releases the driver reserved for a delivery by selectDriver, when the delivery isn't going to be saved.
+     */
+    public void release(final Delivery delivery) {
+        final Driver driver = delivery.getDriver();
+        if (driver != null && driver.getCity() != null && delivery.getEndTime() != null) {
+            state.release(driver.getCity().getId(), driver.getId(), delivery.getDeliveryTime().getTime(),
+                    delivery.getEndTime().getTime());
+        }
+    }
+
+    /**
+     * @return true if the roster of the city is loaded and has drivers in it.
+     */
+    public boolean hasRoster(final long cityId) {
+        final Driver[] drivers = rosterDrivers.get(cityId);
+        if (drivers != null) {
+            for (final Driver d : drivers) {
+                if (d != null) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void refreshRosters() {
+        final Map<Long, List<Driver>> drivers = new HashMap<>();
+        for (final Driver d : driverRepo.findAll()) {
+            if (d.getCity() != null) {
+                drivers.computeIfAbsent(d.getCity().getId(), id -> new ArrayList<>()).add(d);
+            }
+        }
+        final Map<Long, List<DriverShift>> shifts = new HashMap<>();
+        for (final DriverShift shift : shiftRepo.findAll()) {
+            if (shift.getDriver().getCity() != null) {
+                shifts.computeIfAbsent(shift.getDriver().getCity().getId(), id -> new ArrayList<>()).add(shift);
+            }
+        }
+        for (final Map.Entry<Long, List<Driver>> city : drivers.entrySet()) {
+            refreshRoster(city.getKey(), city.getValue(), shifts.getOrDefault(city.getKey(), Collections.emptyList()));
+        }
+    }
+
+    private CityRoster refreshRoster(final long cityId, final List<Driver> drivers, final List<DriverShift> shifts) {
+        final List<Long> driverIds = new ArrayList<>();
+        for (final Driver d : drivers) {
+            driverIds.add(d.getId());
+        }
+        //several shifts of the same day are merged
+        final Map<Long, int[]> days = new HashMap<>();
+        for (final DriverShift shift : shifts) {
+            days.computeIfAbsent(shift.getDriver().getId(), id -> new int[7])[shift.getDayOfWeek() - 1]
+                    |= shift.getHours();
+        }
+        final CityRoster roster = state.refreshRoster(cityId, driverIds, days);
+        final Driver[] byIndex = new Driver[roster.size()];
+        for (final Driver d : drivers) {
+            byIndex[roster.indexOf(d.getId())] = d;
+        }
+        rosterDrivers.put(cityId, byIndex);
+        return roster;
+    }
+
+    private void publishTotal(final DriverSchedule schedule) {
+        publishTotal(schedule, false);
+    }
+
+    private void publishTotal(final DriverSchedule schedule, final boolean reloaded) {
+        final DriverTotalChangedEvent total;
+        synchronized (schedule) {
+            total = new DriverTotalChangedEvent(schedule.getDriverId(), schedule.getCityId(),
+                    schedule.getDeliveries(), schedule.getTotalDistance(), reloaded);
+        }
+        publisher.publishEvent(total);
+    }
+    //---------------------------------------------------------------------------
+    /**
+     * writes a snapshot of the state and starts a new log generation when nothing was appended meanwhile.
+     */
+    @Scheduled(fixedDelayString = "${walt.dispatch.snapshot-ms:60000}")
+    public void snapshot() throws IOException {
+        if (dispatchLog == null) {
+            return;
+        }
+        final byte[] snapshot;
+        final long generation;
+        final long covered;
+        synchronized (dispatchLog) {
+            generation = dispatchLog.getGeneration();
+            covered = dispatchLog.getCount();
+            if (covered == 0) {
+                return;
+            }
+            snapshot = snapshotOf(generation, covered);
+        }
+        writeSnapshot(snapshot);
+        synchronized (dispatchLog) {
+            if (dispatchLog.getGeneration() == generation && dispatchLog.getCount() == covered) {
+                dispatchLog.roll(generation + 1);
+            }
+        }
+    }
+
+    /**
+     * forgets deliveries that ended more than walt.dispatch.history-days ago, orders can't be placed that far
+     * back (walt.orders.max-days-behind).
+     */
+    @Scheduled(fixedDelayString = "${walt.dispatch.prune-ms:3600000}",
+            initialDelayString = "${walt.dispatch.prune-ms:3600000}")
+    public void prune() {
+        final long pruned = state.prune(System.currentTimeMillis() - (long) (historyDays * 24 * 60 * 60 * 1000));
+        if (pruned > 0) {
+            log.info("forgot {} past deliveries of the dispatch state", pruned);
+        }
+    }
+
+    @PreDestroy
+    private void close() throws IOException {
+        if (dispatchLog != null) {
+            snapshot();
+            dispatchLog.close();
+        }
+    }
+    //---------------------------------------------------------------------------
+    /**
+     * loads the last snapshot and replays the records appended after it.
+     * @return false if there is no usable snapshot.
+     */
+    private boolean restoreFromSnapshot() throws IOException {
+        final Path file = Paths.get(logDir, SNAPSHOT_FILE);
+        if (!Files.exists(file)) {
+            return false;
+        }
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file)))) {
+            final long generation = in.readLong();
+            final long covered = in.readLong();
+            final long snapshotMaxId = in.readLong();
+            final long snapshotDeliveries = in.readLong();
+            if (!state.readFrom(in)) {
+                log.warn("dispatch snapshot was written by another version, rebuilding from the database");
+                return false;
+            }
+            if (state.totalDeliveries() != snapshotDeliveries) {
+                log.warn("dispatch snapshot doesn't match its watermark, rebuilding from the database");
+                return false;
+            }
+            final long replayedMaxId;
+            if (dispatchLog.getGeneration() == generation) {
+                replayedMaxId = dispatchLog.replay(covered, state);
+            } else if (dispatchLog.getGeneration() == generation + 1) {
+                replayedMaxId = dispatchLog.replay(0, state);
+            } else {
+                log.warn("dispatch log doesn't match the snapshot, rebuilding from the database");
+                return false;
+            }
+            maxDeliveryId.set(Math.max(snapshotMaxId, replayedMaxId));
+        }
+        //deliveries committed by a node that crashed before logging them, or by the other nodes of a cluster
+        synchronized (dispatchLog) {
+            final long applied = maxDeliveryId.get();
+            if (catchUpWithDatabase()) {
+                if (maxDeliveryId.get() != applied) {
+                    startGeneration();
+                }
+                return true;
+            }
+            final Set<Long> behind = citiesBehindDatabase();
+            log.warn("dispatch log is behind the database in {} cities, reloading them from the database",
+                    behind.size());
+            for (final Long cityId : behind) {
+                state.clearCity(cityId);
+                apply(deliveryRepo.findAllAssignmentsByCity(cityId));
+            }
+            startGeneration();
+        }
+        return true;
+    }
+
+    /**
+     * compares the watermark of the state with the database, a single aggregate over the deliveries table, and
+     * applies the deliveries stored after the highest id of the state.
+     * @return false if the state still doesn't match - a delivery below that id was added or removed meanwhile.
+     */
+    private boolean catchUpWithDatabase() {
+        final Object[] watermark = deliveryRepo.findWatermark().get(0);
+        final long maxId = ((Number) watermark[0]).longValue();
+        final long deliveries = ((Number) watermark[1]).longValue();
+        if (maxId > maxDeliveryId.get()) {
+            final List<Object[]> after = deliveryRepo.findAllAssignmentsAfter(maxDeliveryId.get());
+            log.info("dispatch log is {} deliveries behind the database, applying them", after.size());
+            apply(after);
+        }
+        return state.totalDeliveries() == deliveries;
+    }
+
+    /**
+     * compares the number and distance of the deliveries of every driver with the database.
+     * @return cities with a driver that doesn't match.
+     */
+    private Set<Long> citiesBehindDatabase() {
+        final Set<Long> behind = new HashSet<>();
+        final Set<Long> drivers = new HashSet<>();
+        for (final Object[] row : deliveryRepo.sumByCityAndDriver()) {
+            final Long cityId = (Long) row[0];
+            final Long driverId = (Long) row[1];
+            final long deliveries = (Long) row[2];
+            final double distance = (Double) row[3];
+            drivers.add(driverId);
+            final DriverSchedule schedule = state.getSchedule(driverId);
+            if (schedule == null) {
+                behind.add(cityId);
+                continue;
+            }
+            //every delivery is truncated on its own, so the state is short of the total by less than 1 Km each
+            if (schedule.getCityId() != cityId || schedule.getDeliveries() != deliveries
+                    || schedule.getTotalDistance() > distance + 1e-6
+                    || schedule.getTotalDistance() <= distance - deliveries + 1e-6) {
+                behind.add(cityId);
+                behind.add(schedule.getCityId());
+            }
+        }
+        for (final DriverSchedule schedule : state.getSchedules()) {
+            if (!drivers.contains(schedule.getDriverId())) {
+                behind.add(schedule.getCityId());
+            }
+        }
+        return behind;
+    }
+
+    private void rebuildFromDatabase() {
+        state.clear();
+        maxDeliveryId.set(0);
+        apply(deliveryRepo.findAllAssignments());
+    }
+
+    private void apply(final List<Object[]> assignments) {
+        for (final Object[] row : assignments) {
+            state.record((Long) row[0], (Long) row[1], ((Date) row[2]).getTime(), endOf(row), (Double) row[3]);
+            maxDeliveryId.accumulateAndGet((Long) row[5], Math::max);
+        }
+    }
+
+    /**
+     * @param row - a row of findAllAssignments.
+     * @return end time of the delivery, in millis.
+     */
+    private static long endOf(final Object[] row) {
+        final long start = ((Date) row[2]).getTime();
+        //deliveries stored before they had an end time took a full hour
+        return row[4] == null ? start + Delivery.LEGACY_DURATION_MILLIS : ((Date) row[4]).getTime();
+    }
+
+    /**
+     * writes a snapshot of the whole state and starts a log generation after it.
+     */
+    private void startGeneration() throws IOException {
+        final long generation = dispatchLog.getGeneration() + 1;
+        writeSnapshot(snapshotOf(generation, 0));
+        dispatchLog.roll(generation);
+    }
+
+    private byte[] snapshotOf(final long generation, final long covered) throws IOException {
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        final DataOutputStream out = new DataOutputStream(bytes);
+        out.writeLong(generation);
+        out.writeLong(covered);
+        out.writeLong(maxDeliveryId.get());
+        out.writeLong(state.totalDeliveries());
+        state.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    /**
+     * replaces the snapshot file atomically, a crash never leaves half a snapshot.
+     */
+    private void writeSnapshot(final byte[] snapshot) throws IOException {
+        final Path tmp = Paths.get(logDir, SNAPSHOT_FILE + ".tmp");
+        Files.write(tmp, snapshot);
+        Files.move(tmp, Paths.get(logDir, SNAPSHOT_FILE),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+}
@@ -0,0 +1,88 @@
+package com.walt.dispatch;
+
+import com.walt.WaltService;
+import com.walt.cluster.CityOwnership;
+import com.walt.dao.CityRepository;
+import com.walt.dao.DriverRepository;
+import com.walt.model.City;
+import com.walt.model.Customer;
+import com.walt.model.Driver;
+import com.walt.model.Restaurant;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * runs the dispatch path on synthetic orders before the app reports it's ready, so the first real orders
+ * don't hit cold caches and interpreted code. spring boot moves readiness to ACCEPTING_TRAFFIC only after
+ * all the runners are done. the synthetic orders are never saved.
+ */
+@Component
+public class DispatchWarmup implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(DispatchWarmup.class);
+
+    @Value("${walt.warmup.enabled:false}")
+    private boolean enabled;
+    @Value("${walt.warmup.orders-per-city:200}")
+    private int ordersPerCity;
+
+    @Autowired
+    private WaltService waltService;
+    @Autowired
+    private CityRepository cityRepo;
+    @Autowired
+    private DriverRepository driverRepo;
+    @Autowired
+    private CityOwnership cityOwnership;
+    @Autowired
+    private DispatchStateService dispatchState;
+
+    private volatile int orders;
+
+    /**
+     * @return number of synthetic orders the warm-up assigned a driver to.
+     */
+    public int getOrders() {
+        return orders;
+    }
+
+    @Override
+    public void run(final ApplicationArguments args) {
+        if (!enabled) {
+            return;
+        }
+        final long start = System.currentTimeMillis();
+        int cities = 0;
+        int orders = 0;
+        for (final City city : cityRepo.findAll()) {
+            final List<Driver> drivers = driverRepo.findAllDriversByCity(city);
+            //ordering would claim the city's lease, a node warms only the driver lookups
+            if (drivers.isEmpty() || cityOwnership.isEnabled()) {
+                continue;
+            }
+            cities++;
+            final Customer customer = new Customer("warm-up", city, "warm-up");
+            final Restaurant restaurant = new Restaurant("warm-up", city, "warm-up");
+            for (int i = 0; i < ordersPerCity; i++) {
+                try {
+                    //nothing is saved, the reserved driver is free for the real orders right away
+                    dispatchState.release(waltService.createOrderAndAssignDriver(customer, restaurant, new Date()));
+                    orders++;
+                } catch (Exception e) {
+                    //a city without free drivers is still a valid warm-up
+                }
+            }
+        }
+        this.orders = orders;
+        log.info("dispatch warm-up ran {} orders over {} cities in {} ms", orders, cities,
+                System.currentTimeMillis() - start);
+    }
+}
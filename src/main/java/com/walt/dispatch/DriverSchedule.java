@@ -0,0 +1,205 @@
+package com.walt.dispatch;
+
+import java.util.Arrays;
+
+/**
+ * in-memory history of a single driver - what the dispatcher needs without going to the database.
+ */
+public class DriverSchedule {
+    private final long driverId;
+    /**
+     * current city of the driver, changes when the driver moves - the deliveries stay with the driver.
+     */
+    private volatile long cityId;
+    private int deliveries;
+    private long totalDistance;
+    /**
+     * start and end of the deliveries in millis, sorted by start. plain arrays so lookups allocate nothing,
+     * deliveries mostly come in time order and are appended at the end.
+     */
+    private long[] starts = new long[8];
+    private long[] ends = new long[8];
+    private int intervals;
+    private long longestInterval;
+    /**
+     * weights of the deliveries, each decayed from its start to workloadAsOf.
+     */
+    private double workload;
+    private long workloadAsOf = Long.MIN_VALUE;
+
+    public DriverSchedule(final long driverId, final long cityId) {
+        this.driverId = driverId;
+        this.cityId = cityId;
+    }
+
+    DriverSchedule(final long driverId, final long cityId, final int deliveries, final long totalDistance,
+                   final double workload, final long workloadAsOf, final long[] booked) {
+        this(driverId, cityId);
+        this.deliveries = deliveries;
+        this.totalDistance = totalDistance;
+        this.workload = workload;
+        this.workloadAsOf = workloadAsOf;
+        for (int i = 0; i < booked.length; i += 2) {
+            book(booked[i], booked[i + 1]);
+        }
+    }
+
+    synchronized void record(final long start, final long end, final double distance, final double weight,
+                             final long decayMillis) {
+        deliveries++;
+        //same rounding as the rank report - every delivery is truncated on its own
+        totalDistance += (long) distance;
+        book(start, end);
+        if (start >= workloadAsOf) {
+            workload = decay(workload, start - workloadAsOf, decayMillis) + weight;
+            workloadAsOf = start;
+        } else {
+            //recorded out of order, decayed to the latest delivery instead
+            workload += decay(weight, workloadAsOf - start, decayMillis);
+        }
+    }
+
+    private static double decay(final double value, final long millis, final long decayMillis) {
+        return value == 0 ? 0 : value * Math.exp(-(double) millis / decayMillis);
+    }
+
+    private void book(final long start, final long end) {
+        longestInterval = Math.max(longestInterval, end - start);
+        final int i = firstStartingFrom(start);
+        if (i < intervals && starts[i] == start) {
+            ends[i] = Math.max(ends[i], end);
+            return;
+        }
+        if (intervals == starts.length) {
+            starts = Arrays.copyOf(starts, intervals * 2);
+            ends = Arrays.copyOf(ends, intervals * 2);
+        }
+        System.arraycopy(starts, i, starts, i + 1, intervals - i);
+        System.arraycopy(ends, i, ends, i + 1, intervals - i);
+        starts[i] = start;
+        ends[i] = end;
+        intervals++;
+    }
+
+    /**
+     * @return index of the first interval that starts at the time or later.
+     */
+    private int firstStartingFrom(final long time) {
+        if (intervals == 0 || starts[intervals - 1] < time) {
+            return intervals;
+        }
+        int low = 0;
+        int high = intervals - 1;
+        while (low < high) {
+            final int mid = (low + high) >>> 1;
+            if (starts[mid] < time) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    public long getDriverId() {
+        return driverId;
+    }
+
+    public long getCityId() {
+        return cityId;
+    }
+
+    void moveTo(final long cityId) {
+        this.cityId = cityId;
+    }
+
+    public synchronized int getDeliveries() {
+        return deliveries;
+    }
+
+    public synchronized long getTotalDistance() {
+        return totalDistance;
+    }
+
+    /**
+     * sum of the weights of the deliveries, each decayed by e^(-age / decayMillis) - a sliding window of about
+     * decayMillis, kept up to date in O(1) per delivery.
+     * @param time - time the workload is needed at, in millis. earlier than the latest delivery counts as then.
+     * @param decayMillis - the same decay the deliveries were recorded with.
+     */
+    public synchronized double getWorkload(final long time, final long decayMillis) {
+        return time <= workloadAsOf ? workload : decay(workload, time - workloadAsOf, decayMillis);
+    }
+
+    synchronized double getWorkload() {
+        return workload;
+    }
+
+    synchronized long getWorkloadAsOf() {
+        return workloadAsOf;
+    }
+
+    /**
+     * an interval overlapping [start, end) starts before end and no earlier than start minus the longest
+     * interval, so only that window is looked at - a binary search plus the few deliveries in the window.
+     * @param start - start of a delivery, in millis.
+     * @param end - end of the delivery, in millis.
+     * @return true if the driver has no delivery overlapping that time.
+     */
+    public synchronized boolean isFree(final long start, final long end) {
+        for (int i = firstStartingFrom(start - longestInterval); i < intervals && starts[i] < end; i++) {
+            if (ends[i] > start) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * forgets the deliveries that ended by the time - they can't overlap a delivery starting after it.
+     * counts, distance and workload keep them.
+     * @param before - a time in millis.
+     * @return number of forgotten deliveries.
+     */
+    synchronized int prune(final long before) {
+        int kept = 0;
+        for (int i = 0; i < intervals; i++) {
+            if (ends[i] > before) {
+                starts[kept] = starts[i];
+                ends[kept] = ends[i];
+                kept++;
+            }
+        }
+        final int pruned = intervals - kept;
+        intervals = kept;
+        if (starts.length > 8 && starts.length > kept * 4) {
+            starts = Arrays.copyOf(starts, Math.max(8, kept * 2));
+            ends = Arrays.copyOf(ends, starts.length);
+        }
+        return pruned;
+    }
+
+    /**
+     * forgets all the deliveries, before they are recorded again. the schedule itself stays - rosters hold it.
+     */
+    synchronized void reset() {
+        deliveries = 0;
+        totalDistance = 0;
+        intervals = 0;
+        longestInterval = 0;
+        workload = 0;
+        workloadAsOf = Long.MIN_VALUE;
+    }
+
+    /**
+     * @return start and end of every delivery, one after the other.
+     */
+    public synchronized long[] getIntervals() {
+        final long[] all = new long[intervals * 2];
+        for (int i = 0; i < intervals; i++) {
+            all[i * 2] = starts[i];
+            all[i * 2 + 1] = ends[i];
+        }
+        return all;
+    }
+}
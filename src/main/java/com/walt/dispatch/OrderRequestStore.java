@@ -0,0 +1,177 @@
+package com.walt.dispatch;
+
+import com.walt.dao.OrderRequestKeyRepository;
+import com.walt.model.Delivery;
+import com.walt.model.OrderRequestKey;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.lang.reflect.UndeclaredThrowableException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * remembers which delivery was created for an order request key, so a retried request gets the same delivery
+ * instead of a second driver. recent keys are answered from memory, older ones from the order_request_key
+ * table, and a retry that arrives while the first request is still running waits for its result.
+ * a key is stored with a hash of its order details - the same key with other details is rejected, not
+ * answered with the first delivery. keys are deleted walt.orders.request-keys.retention-hours after they
+ * were created, a retry after that creates a new order.
+ */
+@Component
+public class OrderRequestStore {
+
+    private static final Logger log = LoggerFactory.getLogger(OrderRequestStore.class);
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    @Value("${walt.orders.request-keys.cache-size:10000}")
+    private int cacheSize;
+    @Value("${walt.orders.request-keys.retention-hours:24}")
+    private long retentionHours;
+
+    @Autowired
+    private OrderRequestKeyRepository requestKeyRepo;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+    private Map<String, OrderRequestKey> recent;
+    private final Map<String, CompletableFuture<OrderRequestKey>> inFlight = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    private void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        recent = new LinkedHashMap<String, OrderRequestKey>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(final Map.Entry<String, OrderRequestKey> eldest) {
+                return size() > cacheSize;
+            }
+        };
+    }
+
+    /**
+     * @param requestKey - key sent by the client, the same for all the retries of a request.
+     * @param requestHash - hash of the order details of the request, see hashOf.
+     * @param createOrder - creates and saves the delivery, called once per key.
+     * @return the delivery created for the key.
+     * @throws RequestKeyReusedException if the key was stored with another hash.
+     * @throws Exception - failure of createOrder. nothing is stored then, a retry creates the order again.
+     */
+    public Delivery getOrCreate(final String requestKey, final String requestHash,
+                                final Callable<Delivery> createOrder) throws Exception {
+        OrderRequestKey stored;
+        synchronized (recent) {
+            stored = recent.get(requestKey);
+        }
+        if (stored == null) {
+            stored = getOrCreateOnce(requestKey, requestHash, createOrder);
+        }
+        if (!Objects.equals(stored.getRequestHash(), requestHash)) {
+            throw new RequestKeyReusedException(requestKey);
+        }
+        return stored.getDelivery();
+    }
+
+    /**
+     * @param parameters - the order details of a request.
+     * @return hex SHA-256 of the details.
+     */
+    public static String hashOf(final Object... parameters) {
+        try {
+            final MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            final byte[] hash = digest.digest(Arrays.toString(parameters).getBytes(StandardCharsets.UTF_8));
+            final StringBuilder hex = new StringBuilder(hash.length * 2);
+            for (final byte b : hash) {
+                hex.append(String.format("%02x", b));
+            }
+            return hex.toString();
+        } catch (NoSuchAlgorithmException e) {
+            //every java platform has SHA-256
+            throw new IllegalStateException(e);
+        }
+    }
+
+    /**
+     * deletes the keys older than the retention.
+     */
+    @Scheduled(fixedDelayString = "${walt.orders.request-keys.cleanup-ms:3600000}",
+            initialDelayString = "${walt.orders.request-keys.cleanup-ms:3600000}")
+    public void deleteExpired() {
+        final Date before = new Date(System.currentTimeMillis() - retentionHours * HOUR_MILLIS);
+        final Integer deleted = transactionTemplate.execute(status -> requestKeyRepo.deleteCreatedBefore(before));
+        synchronized (recent) {
+            recent.values().removeIf(k -> k.getCreatedAt().before(before));
+        }
+        log.info("{} order request keys created before {} deleted", deleted, before);
+    }
+    //---------------------------------------------------------------------------
+    /**
+     * finds or creates the key, a request that runs meanwhile with the same key is waited for.
+     */
+    private OrderRequestKey getOrCreateOnce(final String requestKey, final String requestHash,
+                                            final Callable<Delivery> createOrder) throws Exception {
+        final CompletableFuture<OrderRequestKey> mine = new CompletableFuture<>();
+        final CompletableFuture<OrderRequestKey> running = inFlight.putIfAbsent(requestKey, mine);
+        if (running != null) {
+            try {
+                return running.get();
+            } catch (ExecutionException e) {
+                throw (Exception) e.getCause();
+            }
+        }
+
+        try {
+            final OrderRequestKey stored = findOrCreate(requestKey, requestHash, createOrder);
+            synchronized (recent) {
+                recent.put(requestKey, stored);
+            }
+            mine.complete(stored);
+            return stored;
+        } catch (Exception e) {
+            mine.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(requestKey);
+        }
+    }
+
+    private OrderRequestKey findOrCreate(final String requestKey, final String requestHash,
+                                         final Callable<Delivery> createOrder) throws Exception {
+        final Optional<OrderRequestKey> stored = requestKeyRepo.findById(requestKey);
+        if (stored.isPresent()) {
+            return stored.get();
+        }
+        try {
+            //the delivery and its key are committed together, or neither
+            return transactionTemplate.execute(status -> {
+                try {
+                    final Delivery delivery = createOrder.call();
+                    return requestKeyRepo.save(new OrderRequestKey(requestKey, requestHash, delivery));
+                } catch (RuntimeException e) {
+                    throw e;
+                } catch (Exception e) {
+                    throw new UndeclaredThrowableException(e);
+                }
+            });
+        } catch (UndeclaredThrowableException e) {
+            throw (Exception) e.getCause();
+        } catch (DataIntegrityViolationException e) {
+            //stored meanwhile by another node
+            return requestKeyRepo.findById(requestKey).orElseThrow(() -> e);
+        }
+    }
+}
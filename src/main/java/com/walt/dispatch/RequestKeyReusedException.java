@@ -0,0 +1,11 @@
+package com.walt.dispatch;
+
+/**
+ * thrown when an order request key comes back with other order details than the request it was first sent with.
+ */
+public class RequestKeyReusedException extends Exception {
+
+    public RequestKeyReusedException(final String requestKey) {
+        super("request key " + requestKey + " was already used for another order!");
+    }
+}
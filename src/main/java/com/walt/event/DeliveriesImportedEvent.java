@@ -0,0 +1,18 @@
+package com.walt.event;
+
+import java.util.List;
+
+/**
+ * published after a batch of deliveries was written straight to the database, bypassing the entity listeners.
+ */
+public class DeliveriesImportedEvent {
+    private final List<DeliveryRecordedEvent> deliveries;
+
+    public DeliveriesImportedEvent(final List<DeliveryRecordedEvent> deliveries) {
+        this.deliveries = deliveries;
+    }
+
+    public List<DeliveryRecordedEvent> getDeliveries() {
+        return deliveries;
+    }
+}
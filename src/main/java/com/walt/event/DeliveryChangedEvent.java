@@ -0,0 +1,28 @@
+package com.walt.event;
+
+import java.util.Collection;
+
+/**
+ * published when a stored delivery is updated or removed.
+ */
+public class DeliveryChangedEvent {
+    private final long deliveryId;
+    private final Collection<Long> driverIds;
+
+    /**
+     * @param deliveryId - the delivery.
+     * @param driverIds - drivers whose deliveries changed - the current and the previous driver of the delivery.
+     */
+    public DeliveryChangedEvent(final long deliveryId, final Collection<Long> driverIds) {
+        this.deliveryId = deliveryId;
+        this.driverIds = driverIds;
+    }
+
+    public long getDeliveryId() {
+        return deliveryId;
+    }
+
+    public Collection<Long> getDriverIds() {
+        return driverIds;
+    }
+}
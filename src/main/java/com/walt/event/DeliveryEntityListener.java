@@ -0,0 +1,42 @@
+package com.walt.event;
+
+import com.walt.model.Delivery;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * turns inserts, updates and removals of deliveries into application events, so in-memory state follows the
+ * database no matter who saved the delivery. created by hibernate through spring's bean container.
+ */
+public class DeliveryEntityListener {
+
+    @Autowired
+    private ApplicationEventPublisher publisher;
+
+    @PostPersist
+    public void recorded(final Delivery delivery) {
+        if (delivery.getDriver() != null && delivery.getDeliveryTime() != null) {
+            publisher.publishEvent(DeliveryRecordedEvent.of(delivery));
+        }
+    }
+
+    @PostUpdate
+    @PostRemove
+    public void changed(final Delivery delivery) {
+        //runs before the delivery's own callbacks, so the stored driver is still the previous one
+        final Set<Long> driverIds = new HashSet<>();
+        if (delivery.storedDriverId() != null) {
+            driverIds.add(delivery.storedDriverId());
+        }
+        if (delivery.getDriver() != null) {
+            driverIds.add(delivery.getDriver().getId());
+        }
+        publisher.publishEvent(new DeliveryChangedEvent(delivery.getId(), driverIds));
+    }
+}
@@ -0,0 +1,58 @@
+package com.walt.event;
+
+import com.walt.model.Delivery;
+
+/**
+ * published when a new delivery is stored in the database.
+ */
+public class DeliveryRecordedEvent {
+    private final long deliveryId;
+    private final long driverId;
+    private final long cityId;
+    private final long deliveryTime;
+    private final long endTime;
+    private final double distance;
+
+    public DeliveryRecordedEvent(final long deliveryId, final long driverId, final long cityId,
+                                 final long deliveryTime, final long endTime, final double distance) {
+        this.deliveryId = deliveryId;
+        this.driverId = driverId;
+        this.cityId = cityId;
+        this.deliveryTime = deliveryTime;
+        this.endTime = endTime;
+        this.distance = distance;
+    }
+
+    public static DeliveryRecordedEvent of(final Delivery delivery) {
+        final long cityId = delivery.getDriver().getCity() == null ? 0 : delivery.getDriver().getCity().getId();
+        final long start = delivery.getDeliveryTime().getTime();
+        final long end = delivery.getEndTime() == null ?
+                start + Delivery.LEGACY_DURATION_MILLIS : delivery.getEndTime().getTime();
+        return new DeliveryRecordedEvent(delivery.getId(), delivery.getDriver().getId(), cityId,
+                start, end, delivery.getDistance());
+    }
+
+    public long getDeliveryId() {
+        return deliveryId;
+    }
+
+    public long getDriverId() {
+        return driverId;
+    }
+
+    public long getCityId() {
+        return cityId;
+    }
+
+    public long getDeliveryTime() {
+        return deliveryTime;
+    }
+
+    public long getEndTime() {
+        return endTime;
+    }
+
+    public double getDistance() {
+        return distance;
+    }
+}
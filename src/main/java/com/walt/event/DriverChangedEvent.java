@@ -0,0 +1,19 @@
+package com.walt.event;
+
+/**
+ * published when a driver is added, changed or removed.
+ */
+public class DriverChangedEvent {
+    private final Long cityId;
+
+    /**
+     * @param cityId - city of the driver, null when it may have moved between cities.
+     */
+    public DriverChangedEvent(final Long cityId) {
+        this.cityId = cityId;
+    }
+
+    public Long getCityId() {
+        return cityId;
+    }
+}
@@ -0,0 +1,30 @@
+package com.walt.event;
+
+import com.walt.model.Driver;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+/**
+ * turns changes of drivers into application events. created by hibernate through spring's bean container.
+ */
+public class DriverEntityListener {
+
+    @Autowired
+    private ApplicationEventPublisher publisher;
+
+    @PostPersist
+    public void added(final Driver driver) {
+        publisher.publishEvent(new DriverChangedEvent(driver.getCity() == null ? null : driver.getCity().getId()));
+    }
+
+    @PostUpdate
+    @PostRemove
+    public void changed(final Driver driver) {
+        //the previous city of the driver isn't known here
+        publisher.publishEvent(new DriverChangedEvent(null));
+    }
+}
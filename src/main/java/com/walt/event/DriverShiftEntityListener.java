@@ -0,0 +1,28 @@
+package com.walt.event;
+
+import com.walt.model.Driver;
+import com.walt.model.DriverShift;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+
+import javax.persistence.PostPersist;
+import javax.persistence.PostRemove;
+import javax.persistence.PostUpdate;
+
+/**
+ * a changed shift changes the drivers of its city that can be dispatched, published as a driver change.
+ */
+public class DriverShiftEntityListener {
+
+    @Autowired
+    private ApplicationEventPublisher publisher;
+
+    @PostPersist
+    @PostUpdate
+    @PostRemove
+    public void changed(final DriverShift shift) {
+        final Driver driver = shift.getDriver();
+        publisher.publishEvent(new DriverChangedEvent(driver == null || driver.getCity() == null ?
+                null : driver.getCity().getId()));
+    }
+}
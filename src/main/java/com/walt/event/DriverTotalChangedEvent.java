@@ -0,0 +1,51 @@
+package com.walt.event;
+
+/**
+ * published once the in-memory totals of a driver changed.
+ * carries the absolute totals, so applying an event twice or after a fresh read does no harm.
+ * totals only grow, unless the driver was reloaded after some of its deliveries were updated or removed.
+ */
+public class DriverTotalChangedEvent {
+    private final long driverId;
+    private final long cityId;
+    private final int deliveries;
+    private final long totalDistance;
+    private final boolean reloaded;
+
+    public DriverTotalChangedEvent(final long driverId, final long cityId, final int deliveries,
+                                   final long totalDistance) {
+        this(driverId, cityId, deliveries, totalDistance, false);
+    }
+
+    /**
+     * @param reloaded - the totals were reloaded from the database and may be lower than the previous ones.
+     */
+    public DriverTotalChangedEvent(final long driverId, final long cityId, final int deliveries,
+                                   final long totalDistance, final boolean reloaded) {
+        this.driverId = driverId;
+        this.cityId = cityId;
+        this.deliveries = deliveries;
+        this.totalDistance = totalDistance;
+        this.reloaded = reloaded;
+    }
+
+    public long getDriverId() {
+        return driverId;
+    }
+
+    public long getCityId() {
+        return cityId;
+    }
+
+    public int getDeliveries() {
+        return deliveries;
+    }
+
+    public long getTotalDistance() {
+        return totalDistance;
+    }
+
+    public boolean isReloaded() {
+        return reloaded;
+    }
+}
@@ -0,0 +1,21 @@
+package com.walt.event;
+
+import java.util.Collection;
+
+/**
+ * published once changes of the primary database were applied to the read replica.
+ */
+public class ReplicaUpdatedEvent {
+    private final Collection<Long> cityIds;
+
+    /**
+     * @param cityIds - cities whose deliveries changed in the replica, null when the whole replica was copied.
+     */
+    public ReplicaUpdatedEvent(final Collection<Long> cityIds) {
+        this.cityIds = cityIds;
+    }
+
+    public Collection<Long> getCityIds() {
+        return cityIds;
+    }
+}
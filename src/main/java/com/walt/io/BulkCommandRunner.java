@@ -0,0 +1,35 @@
+package com.walt.io;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.nio.file.Paths;
+
+/**
+ * runs bulk imports and exports given on the command line, before the app starts serving:
+ * --walt.bulk.import=deliveries.csv and/or --walt.bulk.export=deliveries.csv (import runs first).
+ */
+@Component
+public class BulkCommandRunner implements ApplicationRunner {
+    private static final String IMPORT = "walt.bulk.import";
+    private static final String EXPORT = "walt.bulk.export";
+
+    @Autowired
+    private DeliveryBulkService bulkService;
+
+    @Override
+    public void run(final ApplicationArguments args) throws Exception {
+        if (args.containsOption(IMPORT)) {
+            for (final String file : args.getOptionValues(IMPORT)) {
+                bulkService.importCsv(Paths.get(file));
+            }
+        }
+        if (args.containsOption(EXPORT)) {
+            for (final String file : args.getOptionValues(EXPORT)) {
+                bulkService.exportCsv(Paths.get(file));
+            }
+        }
+    }
+}
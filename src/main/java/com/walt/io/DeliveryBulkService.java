@@ -0,0 +1,258 @@
+package com.walt.io;
+
+import com.walt.dao.CustomerRepository;
+import com.walt.dao.DriverRepository;
+import com.walt.dao.RestaurantRepository;
+import com.walt.event.DeliveriesImportedEvent;
+import com.walt.event.DeliveryRecordedEvent;
+import com.walt.model.Customer;
+import com.walt.model.Delivery;
+import com.walt.model.Driver;
+import com.walt.model.NamedEntity;
+import com.walt.model.Restaurant;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowCallbackHandler;
+import org.springframework.stereotype.Service;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.sql.Timestamp;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.function.Function;
+
+/**
+ * bulk import and export of deliveries as csv files of driver, restaurant, customer, deliveryTime (ISO-8601),
+ * distance and endTime (ISO-8601). files without the endTime column are imported too, their end times are
+ * derived from the distances. both directions stream the file - rows are read and inserted in jdbc batches,
+ * and exported rows are written as the result set is read. imported batches are announced once committed, so
+ * the in-memory state, rollups and report caches follow.
+ */
+@Service
+public class DeliveryBulkService {
+
+    private static final Logger log = LoggerFactory.getLogger(DeliveryBulkService.class);
+    static final String HEADER = "driver,restaurant,customer,deliveryTime,distance,endTime";
+    /**
+     * header of the files exported before deliveries had end times.
+     */
+    static final String HEADER_WITHOUT_END = "driver,restaurant,customer,deliveryTime,distance";
+    private static final int BATCH_SIZE = 1000;
+
+    @Autowired
+    private DriverRepository driverRepo;
+    @Autowired
+    private RestaurantRepository restaurantRepo;
+    @Autowired
+    private CustomerRepository customerRepo;
+    @Autowired
+    private JdbcTemplate jdbcTemplate;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+    @Autowired
+    private ApplicationEventPublisher publisher;
+    @Autowired
+    private EntityManagerFactory entityManagerFactory;
+
+    /**
+     * imports the deliveries of a csv file, batch after batch.
+     * @param file - csv file with the export header, with or without the endTime column.
+     * @return number of imported deliveries.
+     * @throws Exception if a line is malformed or names an unknown driver, restaurant or customer -
+     * the batches before it stay imported.
+     */
+    public long importCsv(final Path file) throws Exception {
+        final long start = System.currentTimeMillis();
+        final Map<String, Driver> drivers = new HashMap<>();
+        final Map<String, Restaurant> restaurants = new HashMap<>();
+        final Map<String, Customer> customers = new HashMap<>();
+        final List<Object[]> batch = new ArrayList<>(BATCH_SIZE);
+        final List<Driver> batchDrivers = new ArrayList<>(BATCH_SIZE);
+        long imported = 0;
+
+        try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+            String line = in.readLine();
+            if (line == null || !HEADER.equals(line.trim()) && !HEADER_WITHOUT_END.equals(line.trim())) {
+                throw new Exception("missing header '" + HEADER + "' in " + file);
+            }
+            final int columns = CsvFormat.split(line.trim()).size();
+            int lineNumber = 1;
+            while ((line = in.readLine()) != null) {
+                lineNumber++;
+                if (line.trim().isEmpty()) {
+                    continue;
+                }
+                final List<String> fields = CsvFormat.split(line);
+                if (fields.size() != columns) {
+                    throw new Exception("line " + lineNumber + ": expected " + columns + " fields");
+                }
+                final Driver driver = resolve(drivers, fields.get(0), driverRepo::findByName, lineNumber);
+                final Restaurant restaurant = resolve(restaurants, fields.get(1), restaurantRepo::findByName, lineNumber);
+                final Customer customer = resolve(customers, fields.get(2), customerRepo::findByName, lineNumber);
+                //an empty end time is derived from the distance, like a missing column
+                final Timestamp endTime = columns > 5 && !fields.get(5).isEmpty()
+                        ? parseTime("endTime", fields.get(5), lineNumber) : null;
+                batch.add(new Object[]{parseTime("deliveryTime", fields.get(3), lineNumber),
+                        parseDistance(fields.get(4), lineNumber), customer.getId(), driver.getId(), restaurant.getId(),
+                        endTime});
+                batchDrivers.add(driver);
+                if (batch.size() == BATCH_SIZE) {
+                    imported += insert(batch, batchDrivers);
+                }
+            }
+        }
+        imported += insert(batch, batchDrivers);
+        log.info("imported {} deliveries from {} in {} ms", imported, file, System.currentTimeMillis() - start);
+        return imported;
+    }
+    //---------------------------------------------------------------------------
+    /**
+     * writes all the deliveries to a csv file, in id order.
+     * @return number of exported deliveries.
+     */
+    public long exportCsv(final Path file) throws IOException {
+        final long start = System.currentTimeMillis();
+        final long[] exported = {0};
+        try (BufferedWriter out = Files.newBufferedWriter(file, StandardCharsets.UTF_8)) {
+            out.write(HEADER);
+            out.newLine();
+            final JdbcTemplate streaming = new JdbcTemplate(jdbcTemplate.getDataSource());
+            streaming.setFetchSize(BATCH_SIZE);
+            streaming.query("select dr.name, r.name, c.name, d.delivery_time, d.distance, d.end_time from delivery d " +
+                    "left join named_entity dr on dr.id = d.driver_id " +
+                    "left join named_entity r on r.id = d.restaurant_id " +
+                    "left join named_entity c on c.id = d.customer_id order by d.id", (RowCallbackHandler) rs -> {
+                try {
+                    out.write(CsvFormat.escape(rs.getString(1)));
+                    out.write(',');
+                    out.write(CsvFormat.escape(rs.getString(2)));
+                    out.write(',');
+                    out.write(CsvFormat.escape(rs.getString(3)));
+                    out.write(',');
+                    final Timestamp deliveryTime = rs.getTimestamp(4);
+                    //empty when the delivery has no time, importing such a line fails with its line number
+                    out.write(deliveryTime == null ? "" : deliveryTime.toInstant().toString());
+                    out.write(',');
+                    out.write(Double.toString(rs.getDouble(5)));
+                    out.write(',');
+                    final Timestamp endTime = rs.getTimestamp(6);
+                    out.write(endTime == null ? "" : endTime.toInstant().toString());
+                    out.newLine();
+                    exported[0]++;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            });
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        }
+        log.info("exported {} deliveries to {} in {} ms", exported[0], file, System.currentTimeMillis() - start);
+        return exported[0];
+    }
+    //---------------------------------------------------------------------------
+    /**
+     * @return the named entity, looked up once per name.
+     */
+    private <T extends NamedEntity> T resolve(final Map<String, T> cache, final String name,
+                                              final Function<String, T> findByName, final int lineNumber)
+            throws Exception {
+        final T entity = cache.computeIfAbsent(name, findByName);
+        if (entity == null) {
+            throw new Exception("line " + lineNumber + ": '" + name + "' doesn't exist in the system!");
+        }
+        return entity;
+    }
+
+    /**
+     * @param column - name of the column, for the error.
+     */
+    private static Timestamp parseTime(final String column, final String field, final int lineNumber)
+            throws Exception {
+        try {
+            return Timestamp.from(Instant.parse(field));
+        } catch (DateTimeParseException e) {
+            throw new Exception("line " + lineNumber + ": " + column + " '" + field + "' isn't an ISO-8601 instant!");
+        }
+    }
+
+    private static double parseDistance(final String field, final int lineNumber) throws Exception {
+        try {
+            return Double.parseDouble(field);
+        } catch (NumberFormatException e) {
+            throw new Exception("line " + lineNumber + ": distance '" + field + "' isn't a number!");
+        }
+    }
+
+    /**
+     * @return ids for new deliveries, from the generator hibernate uses for them - whatever the database and
+     * however many ids the generator allocates at once.
+     */
+    private List<Long> nextIds(final int count) {
+        final SessionFactoryImplementor sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        final IdentifierGenerator generator = sessionFactory.getMetamodel().entityPersister(Delivery.class)
+                .getIdentifierGenerator();
+        final List<Long> ids = new ArrayList<>(count);
+        final EntityManager entityManager = entityManagerFactory.createEntityManager();
+        try {
+            final SessionImplementor session = entityManager.unwrap(SessionImplementor.class);
+            for (int i = 0; i < count; i++) {
+                ids.add(((Number) generator.generate(session, null)).longValue());
+            }
+        } finally {
+            entityManager.close();
+        }
+        return ids;
+    }
+
+    /**
+     * inserts a batch of rows in a single transaction and announces it once committed.
+     * @param batch - delivery time, distance, customer id, driver id, restaurant id and end time (null when the
+     * file has none) of every row.
+     * @return number of inserted rows.
+     */
+    private int insert(final List<Object[]> batch, final List<Driver> batchDrivers) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        final List<Long> ids = nextIds(batch.size());
+        final List<Object[]> rows = new ArrayList<>(batch.size());
+        final List<DeliveryRecordedEvent> events = new ArrayList<>(batch.size());
+        for (int i = 0; i < batch.size(); i++) {
+            final Object[] row = batch.get(i);
+            final long start = ((Timestamp) row[0]).getTime();
+            //without an end time in the file, same duration as a delivery stored through hibernate
+            final long end = row[5] != null ? ((Timestamp) row[5]).getTime()
+                    : start + Delivery.durationOf((Double) row[1]);
+            rows.add(new Object[]{ids.get(i), row[0], new Timestamp(end), row[1], row[2], row[3], row[4]});
+            final Driver driver = batchDrivers.get(i);
+            events.add(new DeliveryRecordedEvent(ids.get(i), driver.getId(),
+                    driver.getCity() == null ? 0 : driver.getCity().getId(), start, end, (Double) row[1]));
+        }
+
+        new TransactionTemplate(transactionManager).execute(status -> jdbcTemplate.batchUpdate(
+                "insert into delivery (id, delivery_time, end_time, distance, customer_id, driver_id, " +
+                        "restaurant_id) values (?, ?, ?, ?, ?, ?, ?)", rows));
+        publisher.publishEvent(new DeliveriesImportedEvent(events));
+
+        batch.clear();
+        batchDrivers.clear();
+        return rows.size();
+    }
+}
@@ -0,0 +1,66 @@
+package com.walt.model;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Version;
+import java.util.Date;
+
+/**
+ * ownership lease of a city - the node that holds a non expired lease is the only one that dispatches
+ * orders of that city.
+ */
+@Entity
+public class CityLease {
+
+    @Id
+    private Long cityId;
+    private String ownerNode;
+    private String ownerUrl;
+    private Date expiresAt;
+
+    @Version
+    private Long version;
+
+    public CityLease() {
+    }
+
+    public CityLease(final Long cityId) {
+        this.cityId = cityId;
+    }
+
+    public Long getCityId() {
+        return cityId;
+    }
+
+    public String getOwnerNode() {
+        return ownerNode;
+    }
+
+    public void setOwnerNode(final String ownerNode) {
+        this.ownerNode = ownerNode;
+    }
+
+    public String getOwnerUrl() {
+        return ownerUrl;
+    }
+
+    public void setOwnerUrl(final String ownerUrl) {
+        this.ownerUrl = ownerUrl;
+    }
+
+    public Date getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(final Date expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public boolean isExpired(final long now) {
+        return expiresAt == null || expiresAt.getTime() <= now;
+    }
+}
@@ -1,12 +1,26 @@
 package com.walt.model;
 
+import com.walt.event.DeliveryEntityListener;
+
 import javax.persistence.*;
 import java.util.Date;
 import java.util.Random;
 
 @Entity
+@EntityListeners(DeliveryEntityListener.class)
 public class Delivery {
 
+    /**
+     * deliveries take 20 minutes plus 3.5 minutes per Km, between 20 and 90 minutes.
+     */
+    private static final long MIN_DURATION_MILLIS = 20 * 60 * 1000;
+    private static final long MAX_DURATION_MILLIS = 90 * 60 * 1000;
+    private static final double MILLIS_PER_KM = 3.5 * 60 * 1000;
+    /**
+     * duration of the deliveries stored before they had an end time - a full hour.
+     */
+    public static final long LEGACY_DURATION_MILLIS = 60 * 60 * 1000;
+
     @Id
     @GeneratedValue(strategy= GenerationType.AUTO)
     private Long id;
@@ -21,7 +35,13 @@ public class Delivery {
     Customer customer;
 
     Date deliveryTime;
+    Date endTime;
     double distance;
+    /**
+     * driver of the delivery as last read or written, the previous driver while an update is flushed.
+     */
+    @Transient
+    private Long storedDriverId;
 
     public Delivery() {
     }
@@ -69,6 +89,48 @@ public class Delivery {
         this.deliveryTime = deliveryTime;
     }
 
+    /**
+     * @return time the driver is done with the delivery, derived from the distance when it's stored.
+     */
+    public Date getEndTime() {
+        return endTime;
+    }
+
+    public void setEndTime(final Date endTime) {
+        this.endTime = endTime;
+    }
+
+    /**
+     * @param distance - distance of a delivery in Km.
+     * @return how long the delivery takes, in millis.
+     */
+    public static long durationOf(final double distance) {
+        return Math.max(MIN_DURATION_MILLIS, Math.min(MAX_DURATION_MILLIS,
+                MIN_DURATION_MILLIS + (long) (distance * MILLIS_PER_KM)));
+    }
+
+    @PrePersist
+    private void setDefaultEndTime() {
+        if (endTime == null && deliveryTime != null) {
+            endTime = new Date(deliveryTime.getTime() + durationOf(distance));
+        }
+    }
+
+    @PostLoad
+    @PostPersist
+    @PostUpdate
+    private void setStoredDriver() {
+        storedDriverId = driver == null ? null : driver.getId();
+    }
+
+    /**
+     * not a getter - it's not part of the json of a delivery.
+     * @return id of the driver of the delivery as last read or written, null if it had none.
+     */
+    public Long storedDriverId() {
+        return storedDriverId;
+    }
+
     public double getDistance() {
         return distance;
     }
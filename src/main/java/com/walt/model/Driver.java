@@ -1,8 +1,11 @@
 package com.walt.model;
 
+import com.walt.event.DriverEntityListener;
+
 import javax.persistence.*;
 
 @Entity
+@EntityListeners(DriverEntityListener.class)
 public class Driver extends NamedEntity {
 
     @ManyToOne
@@ -0,0 +1,64 @@
+package com.walt.model;
+
+import javax.persistence.*;
+
+/**
+ * total distance and number of deliveries of a driver in a single day, kept up to date as deliveries are
+ * recorded so period reports don't scan the deliveries.
+ */
+@Entity
+@Table(uniqueConstraints = @UniqueConstraint(columnNames = {"driver_id", "epoch_day"}),
+        indexes = @Index(columnList = "city_id, epoch_day"))
+public class DriverDailyRollup {
+
+    @Id
+    @GeneratedValue(strategy= GenerationType.AUTO)
+    private Long id;
+
+    @Column(name = "driver_id")
+    private Long driverId;
+    @Column(name = "city_id")
+    private Long cityId;
+    @Column(name = "epoch_day")
+    private long epochDay;
+    private long totalDistance;
+    private int deliveries;
+
+    public DriverDailyRollup() {
+    }
+
+    public DriverDailyRollup(final Long driverId, final Long cityId, final long epochDay) {
+        this.driverId = driverId;
+        this.cityId = cityId;
+        this.epochDay = epochDay;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Long getDriverId() {
+        return driverId;
+    }
+
+    public Long getCityId() {
+        return cityId;
+    }
+
+    public long getEpochDay() {
+        return epochDay;
+    }
+
+    public long getTotalDistance() {
+        return totalDistance;
+    }
+
+    public int getDeliveries() {
+        return deliveries;
+    }
+
+    public void add(final long distance, final int count) {
+        totalDistance += distance;
+        deliveries += count;
+    }
+}
@@ -0,0 +1,70 @@
+package com.walt.model;
+
+import com.walt.event.DriverShiftEntityListener;
+
+import javax.persistence.*;
+
+/**
+ * the hours a driver works on one day of the week, as a bitset - bit h is set when the driver is on shift
+ * from h:00 to h+1:00. a driver without shifts is available around the clock.
+ */
+@Entity
+@EntityListeners(DriverShiftEntityListener.class)
+public class DriverShift {
+
+    public static final int ALL_DAY = (1 << 24) - 1;
+
+    @Id
+    @GeneratedValue(strategy= GenerationType.AUTO)
+    private Long id;
+
+    @ManyToOne
+    private Driver driver;
+    /**
+     * 1 - Monday ... 7 - Sunday, same as java.time.DayOfWeek
+     */
+    private int dayOfWeek;
+    private int hours;
+
+    public DriverShift() {
+    }
+
+    public DriverShift(final Driver driver, final int dayOfWeek, final int hours) {
+        this.driver = driver;
+        this.dayOfWeek = dayOfWeek;
+        this.hours = hours;
+    }
+
+    /**
+     * @param from - first hour of the shift, 0-23.
+     * @param to - hour the shift ends, 1-24.
+     * @return the bitset of the hours between.
+     */
+    public static int hours(final int from, final int to) {
+        return ((1 << to) - 1) & ~((1 << from) - 1);
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public Driver getDriver() {
+        return driver;
+    }
+
+    public int getDayOfWeek() {
+        return dayOfWeek;
+    }
+
+    public void setDayOfWeek(final int dayOfWeek) {
+        this.dayOfWeek = dayOfWeek;
+    }
+
+    public int getHours() {
+        return hours;
+    }
+
+    public void setHours(final int hours) {
+        this.hours = hours;
+    }
+}
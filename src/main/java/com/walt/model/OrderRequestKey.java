@@ -0,0 +1,66 @@
+package com.walt.model;
+
+import org.springframework.data.domain.Persistable;
+
+import javax.persistence.*;
+import java.util.Date;
+
+/**
+ * idempotency key of an order request, a hash of the order details it was sent with and the delivery created
+ * for it. always inserted, never merged - a key stored meanwhile by another request fails on its primary key
+ * instead of being overwritten.
+ */
+@Entity
+@Table(indexes = @Index(columnList = "created_at"))
+public class OrderRequestKey implements Persistable<String> {
+
+    @Id
+    private String requestKey;
+
+    private String requestHash;
+    @OneToOne
+    private Delivery delivery;
+    @Column(name = "created_at")
+    private Date createdAt;
+
+    @Transient
+    private boolean stored;
+
+    public OrderRequestKey() {
+    }
+
+    public OrderRequestKey(final String requestKey, final String requestHash, final Delivery delivery) {
+        this.requestKey = requestKey;
+        this.requestHash = requestHash;
+        this.delivery = delivery;
+        this.createdAt = new Date();
+    }
+
+    @Override
+    public String getId() {
+        return requestKey;
+    }
+
+    @Override
+    public boolean isNew() {
+        return !stored;
+    }
+
+    @PostLoad
+    @PostPersist
+    private void markStored() {
+        stored = true;
+    }
+
+    public String getRequestHash() {
+        return requestHash;
+    }
+
+    public Delivery getDelivery() {
+        return delivery;
+    }
+
+    public Date getCreatedAt() {
+        return createdAt;
+    }
+}
@@ -0,0 +1,61 @@
+package com.walt.replica;
+
+import com.zaxxer.hikari.HikariDataSource;
+import org.springframework.aop.Advisor;
+import org.springframework.aop.support.DefaultPointcutAdvisor;
+import org.springframework.aop.support.annotation.AnnotationMatchingPointcut;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.beans.factory.config.BeanDefinition;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.context.annotation.Primary;
+import org.springframework.context.annotation.Role;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import javax.sql.DataSource;
+
+/**
+ * with walt.replica.enabled the application datasource routes between the primary (spring.datasource.*)
+ * and a read replica (walt.replica.*), see ReplicaRoutingDataSource. the replica is filled by ReplicaSync.
+ */
+@Configuration
+@ConditionalOnProperty(name = "walt.replica.enabled", havingValue = "true")
+public class ReplicaDataSourceConfiguration {
+
+    @Bean
+    public ReplicaDataSources replicaDataSources(final DataSourceProperties properties, final Environment environment,
+                                                 @Value("${walt.replica.url}") final String url,
+                                                 @Value("${walt.replica.username:sa}") final String username,
+                                                 @Value("${walt.replica.password:}") final String password) {
+        final HikariDataSource primary = properties.initializeDataSourceBuilder().type(HikariDataSource.class).build();
+        final HikariDataSource replica = DataSourceBuilder.create().type(HikariDataSource.class)
+                .url(url).username(username).password(password).build();
+        final Binder binder = Binder.get(environment);
+        binder.bind("spring.datasource.hikari", Bindable.ofInstance(primary));
+        binder.bind("walt.replica.hikari", Bindable.ofInstance(replica));
+        return new ReplicaDataSources(primary, replica);
+    }
+
+    /**
+     * the datasource of jpa and jdbc - a connection is taken from the primary or the replica on the first
+     * statement, when the transaction and its read-only flag are known.
+     */
+    @Bean
+    @Primary
+    public DataSource dataSource(final ReplicaDataSources replicaDataSources) {
+        return new LazyConnectionDataSourceProxy(replicaDataSources.getRouting());
+    }
+
+    @Bean
+    @Role(BeanDefinition.ROLE_INFRASTRUCTURE)
+    public static Advisor replicaReadAdvisor() {
+        return new DefaultPointcutAdvisor(AnnotationMatchingPointcut.forMethodAnnotation(ReplicaRead.class),
+                new ReplicaReadInterceptor());
+    }
+}
@@ -0,0 +1,41 @@
+package com.walt.replica;
+
+import com.zaxxer.hikari.HikariDataSource;
+
+import java.io.Closeable;
+
+/**
+ * the connection pools of the primary and the replica and the routing between them.
+ * not a DataSource itself - only the routing proxy is a DataSource bean, so boot's datasource initialization
+ * sees a single datasource and runs the schema scripts on the primary through it.
+ */
+public class ReplicaDataSources implements Closeable {
+    private final HikariDataSource primary;
+    private final HikariDataSource replica;
+    private final ReplicaRoutingDataSource routing;
+
+    public ReplicaDataSources(final HikariDataSource primary, final HikariDataSource replica) {
+        this.primary = primary;
+        this.replica = replica;
+        this.routing = new ReplicaRoutingDataSource(primary, replica);
+        routing.afterPropertiesSet();
+    }
+
+    public HikariDataSource getPrimary() {
+        return primary;
+    }
+
+    public HikariDataSource getReplica() {
+        return replica;
+    }
+
+    public ReplicaRoutingDataSource getRouting() {
+        return routing;
+    }
+
+    @Override
+    public void close() {
+        primary.close();
+        replica.close();
+    }
+}
@@ -0,0 +1,13 @@
+package com.walt.replica;
+
+import java.lang.annotation.*;
+
+/**
+ * marks a method whose read-only transactions may read the replica - reports that may be a little behind.
+ * everything not marked, including read-only transactions, reads the primary.
+ */
+@Target(ElementType.METHOD)
+@Retention(RetentionPolicy.RUNTIME)
+@Documented
+public @interface ReplicaRead {
+}
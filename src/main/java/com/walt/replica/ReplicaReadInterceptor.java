@@ -0,0 +1,32 @@
+package com.walt.replica;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * marks the calling thread while a @ReplicaRead method runs, ReplicaRoutingDataSource checks the mark.
+ */
+public class ReplicaReadInterceptor implements MethodInterceptor {
+
+    private static final ThreadLocal<Boolean> READING_REPLICA = new ThreadLocal<>();
+
+    @Override
+    public Object invoke(final MethodInvocation invocation) throws Throwable {
+        if (isReadingReplica()) {
+            return invocation.proceed();
+        }
+        READING_REPLICA.set(Boolean.TRUE);
+        try {
+            return invocation.proceed();
+        } finally {
+            READING_REPLICA.remove();
+        }
+    }
+
+    /**
+     * @return true if the current thread runs a @ReplicaRead method.
+     */
+    static boolean isReadingReplica() {
+        return READING_REPLICA.get() != null;
+    }
+}
@@ -0,0 +1,48 @@
+package com.walt.replica;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+import javax.sql.DataSource;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * sends the read-only transactions of @ReplicaRead methods (the rank reports) to the replica and everything
+ * else to the primary. being read-only isn't enough - spring data wraps a repository call made outside a
+ * transaction in a read-only transaction of its own, and the dispatch path, leases and request keys read
+ * that way must see the latest commit.
+ * the transaction is known only once it began, wrap this in a LazyConnectionDataSourceProxy.
+ */
+public class ReplicaRoutingDataSource extends AbstractRoutingDataSource {
+
+    private static final String PRIMARY = "primary";
+    private static final String REPLICA = "replica";
+
+    private volatile boolean replicaReady;
+
+    public ReplicaRoutingDataSource(final DataSource primary, final DataSource replica) {
+        final Map<Object, Object> targets = new HashMap<>();
+        targets.put(PRIMARY, primary);
+        targets.put(REPLICA, replica);
+        setTargetDataSources(targets);
+        setDefaultTargetDataSource(primary);
+    }
+
+    /**
+     * @param replicaReady - true once the replica holds a full copy, reads go to the primary until then.
+     */
+    public void setReplicaReady(final boolean replicaReady) {
+        this.replicaReady = replicaReady;
+    }
+
+    public boolean isReplicaReady() {
+        return replicaReady;
+    }
+
+    @Override
+    protected Object determineCurrentLookupKey() {
+        return replicaReady && TransactionSynchronizationManager.isCurrentTransactionReadOnly()
+                && ReplicaReadInterceptor.isReadingReplica() ? REPLICA : PRIMARY;
+    }
+}
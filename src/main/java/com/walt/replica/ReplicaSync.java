@@ -0,0 +1,425 @@
+package com.walt.replica;
+
+import com.walt.event.DeliveriesImportedEvent;
+import com.walt.event.DeliveryChangedEvent;
+import com.walt.event.DeliveryRecordedEvent;
+import com.walt.event.DriverChangedEvent;
+import com.walt.event.ReplicaUpdatedEvent;
+import com.walt.report.ReportPeriod;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.context.event.EventListener;
+import org.springframework.core.Ordered;
+import org.springframework.core.annotation.Order;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.sql.ResultSetMetaData;
+import java.sql.Timestamp;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.util.*;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * keeps the read replica in line with the primary - the tables read by the rank reports: named entities,
+ * deliveries and driver rollups. on startup the replica gets a full copy, then every committed delivery is
+ * copied with its driver, customer, restaurant and rollup row and all named entities when drivers change. an
+ * updated delivery is copied again, a removed one deleted, and the replica's rollups of its driver and days are
+ * rebuilt from the replica's deliveries.
+ * changes are applied by a single background thread, so writers never wait for the replica. rows are merged
+ * by key and re-read from the primary, applying a change twice or out of order does no harm.
+ * walt.replica.lag is how long the oldest change not yet in the replica has been waiting, in millis.
+ */
+@Component
+@ConditionalOnProperty(name = "walt.replica.enabled", havingValue = "true")
+public class ReplicaSync {
+
+    private static final Logger log = LoggerFactory.getLogger(ReplicaSync.class);
+    private static final int BATCH = 500;
+    private static final long RETRY_MILLIS = 1000;
+
+    @Autowired
+    private ReplicaDataSources dataSources;
+    @Autowired
+    private ApplicationEventPublisher publisher;
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    private ReplicaRoutingDataSource routingDataSource;
+    private JdbcTemplate primary;
+    private JdbcTemplate replica;
+    private TransactionTemplate replicaTransaction;
+    private final LinkedBlockingDeque<Change> changes = new LinkedBlockingDeque<>();
+    private final AtomicInteger pending = new AtomicInteger();
+    /**
+     * queue time of the oldest change being applied, 0 when idle.
+     */
+    private volatile long applyingSince;
+    private Thread worker;
+
+    @PostConstruct
+    private void init() {
+        routingDataSource = dataSources.getRouting();
+        primary = new JdbcTemplate(dataSources.getPrimary());
+        primary.setFetchSize(BATCH);
+        replica = new JdbcTemplate(dataSources.getReplica());
+        replicaTransaction = new TransactionTemplate(new DataSourceTransactionManager(dataSources.getReplica()));
+        new ResourceDatabasePopulator(new ClassPathResource("db/schema-h2.sql")).execute(dataSources.getReplica());
+        //rows arrive in commit order of the primary, where they were already checked
+        replica.execute("set referential_integrity false");
+
+        Gauge.builder("walt.replica.lag", this, ReplicaSync::getLagMillis)
+                .description("millis the oldest change not yet applied to the read replica has been waiting")
+                .baseUnit("milliseconds")
+                .register(meterRegistry);
+        Gauge.builder("walt.replica.pending", pending, AtomicInteger::get)
+                .description("changes not yet applied to the read replica")
+                .register(meterRegistry);
+        enqueue(Change.full(System.currentTimeMillis()));
+    }
+
+    /**
+     * the full copy starts once the schema of the primary exists and the startup data is in.
+     */
+    @EventListener(ApplicationReadyEvent.class)
+    public void start() {
+        worker = new Thread(this::run, "replica-sync");
+        worker.setDaemon(true);
+        worker.start();
+    }
+
+    @PreDestroy
+    private void stop() {
+        if (worker != null) {
+            worker.interrupt();
+        }
+    }
+
+    /**
+     * ordered last, so the rollup of the delivery is already updated when its copy is queued.
+     */
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDeliveryRecorded(final DeliveryRecordedEvent e) {
+        enqueue(Change.deliveries(Collections.singletonList(e)));
+    }
+
+    @Order(Ordered.LOWEST_PRECEDENCE)
+    @EventListener
+    public void onDeliveriesImported(final DeliveriesImportedEvent imported) {
+        enqueue(Change.deliveries(imported.getDeliveries()));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDeliveryChanged(final DeliveryChangedEvent e) {
+        enqueue(Change.changed(e.getDeliveryId()));
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDriverChanged(final DriverChangedEvent e) {
+        enqueue(Change.namedEntities(System.currentTimeMillis()));
+    }
+
+    /**
+     * @return millis the oldest change not yet in the replica has been waiting, 0 when caught up.
+     */
+    public long getLagMillis() {
+        long oldest = applyingSince;
+        final Change next = changes.peek();
+        if (oldest == 0 && next != null) {
+            oldest = next.queuedAt;
+        }
+        return oldest == 0 ? 0 : System.currentTimeMillis() - oldest;
+    }
+
+    /**
+     * @return true if the replica holds a full copy and every change queued so far.
+     */
+    public boolean isCaughtUp() {
+        return routingDataSource.isReplicaReady() && pending.get() == 0;
+    }
+    //---------------------------------------------------------------------------
+    private void enqueue(final Change change) {
+        pending.incrementAndGet();
+        changes.add(change);
+    }
+
+    private void run() {
+        while (!Thread.currentThread().isInterrupted()) {
+            final List<Change> batch = new ArrayList<>();
+            try {
+                batch.add(changes.take());
+            } catch (InterruptedException e) {
+                return;
+            }
+            changes.drainTo(batch);
+            applyingSince = batch.get(0).queuedAt;
+            try {
+                apply(batch);
+                applyingSince = 0;
+                pending.addAndGet(-batch.size());
+            } catch (Exception e) {
+                //reports go back to the primary until a full copy succeeds, the lag keeps counting meanwhile
+                log.error("applying {} changes to the read replica failed, copying it again", batch.size(), e);
+                routingDataSource.setReplicaReady(false);
+                pending.addAndGet(1 - batch.size());
+                changes.addFirst(Change.full(applyingSince));
+                try {
+                    Thread.sleep(RETRY_MILLIS);
+                } catch (InterruptedException interrupted) {
+                    return;
+                }
+            }
+        }
+    }
+
+    private void apply(final List<Change> batch) {
+        if (batch.stream().anyMatch(c -> c.full)) {
+            final long start = System.currentTimeMillis();
+            //in one replica transaction, reports keep reading the previous copy meanwhile
+            replicaTransaction.execute(status -> {
+                for (final String table : new String[]{"named_entity", "delivery", "driver_daily_rollup"}) {
+                    replica.update("delete from " + table);
+                }
+                copy("named_entity", "id", "1 = 1", Collections.emptyList());
+                copy("delivery", "id", "1 = 1", Collections.emptyList());
+                copy("driver_daily_rollup", "driver_id, epoch_day", "1 = 1", Collections.emptyList());
+                return null;
+            });
+            routingDataSource.setReplicaReady(true);
+            publisher.publishEvent(new ReplicaUpdatedEvent(null));
+            log.info("read replica copied in {} ms", System.currentTimeMillis() - start);
+            return;
+        }
+
+        final Set<Long> deliveryIds = new HashSet<>();
+        final Set<Long> driverIds = new HashSet<>();
+        final Set<Long> cityIds = new HashSet<>();
+        long fromDay = Long.MAX_VALUE;
+        long toDay = Long.MIN_VALUE;
+        final Set<Long> changedIds = new LinkedHashSet<>();
+        boolean namedEntities = false;
+        for (final Change change : batch) {
+            namedEntities |= change.namedEntities;
+            if (change.changedDeliveryId != null) {
+                changedIds.add(change.changedDeliveryId);
+            }
+            for (final DeliveryRecordedEvent e : change.deliveries) {
+                deliveryIds.add(e.getDeliveryId());
+                driverIds.add(e.getDriverId());
+                cityIds.add(e.getCityId());
+                fromDay = Math.min(fromDay, ReportPeriod.epochDay(e.getDeliveryTime()));
+                toDay = Math.max(toDay, ReportPeriod.epochDay(e.getDeliveryTime()));
+            }
+        }
+
+        if (namedEntities) {
+            copyNamedEntities();
+        }
+        final List<Long> deliveries = new ArrayList<>(deliveryIds);
+        for (int from = 0; from < deliveries.size(); from += BATCH) {
+            final List<Long> ids = deliveries.subList(from, Math.min(from + BATCH, deliveries.size()));
+            final String in = in(ids);
+            copy("delivery", "id", "id in " + in, ids);
+            final List<Object> entityArgs = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                entityArgs.addAll(ids);
+            }
+            copy("named_entity", "id", "id in (select customer_id from delivery where id in " + in + ")"
+                    + " or id in (select restaurant_id from delivery where id in " + in + ")"
+                    + " or id in (select driver_id from delivery where id in " + in + ")"
+                    + " or id in (select d.city_id from named_entity d join delivery on delivery.driver_id = d.id"
+                    + " where delivery.id in " + in + ")", entityArgs);
+        }
+        final List<Long> drivers = new ArrayList<>(driverIds);
+        for (int from = 0; from < drivers.size(); from += BATCH) {
+            final List<Object> args = new ArrayList<>(drivers.subList(from, Math.min(from + BATCH, drivers.size())));
+            final String in = in(args);
+            args.add(fromDay);
+            args.add(toDay);
+            copy("driver_daily_rollup", "driver_id, epoch_day",
+                    "driver_id in " + in + " and epoch_day between ? and ?", args);
+        }
+        for (final Long deliveryId : changedIds) {
+            cityIds.addAll(copyChanged(deliveryId));
+        }
+        publisher.publishEvent(new ReplicaUpdatedEvent(namedEntities ? null : cityIds));
+    }
+
+    /**
+     * copies an updated delivery or deletes a removed one, then rebuilds the replica's rollups of the delivery's
+     * driver and day, before and after the change. the rollups of the primary are fixed only by the next
+     * reconcile of RollupUpdater, so they are summed from the replica's deliveries rather than copied.
+     * @return cities of the rebuilt rollups.
+     */
+    private Set<Long> copyChanged(final long deliveryId) {
+        return replicaTransaction.execute(status -> {
+            final Set<List<Long>> driverDays = new HashSet<>(driverDays(deliveryId));
+            replica.update("delete from delivery where id = ?", deliveryId);
+            copy("delivery", "id", "id = ?", Collections.singletonList(deliveryId));
+            copy("named_entity", "id", "id in (select customer_id from delivery where id = ?)"
+                    + " or id in (select restaurant_id from delivery where id = ?)"
+                    + " or id in (select driver_id from delivery where id = ?)"
+                    + " or id in (select d.city_id from named_entity d join delivery on delivery.driver_id = d.id"
+                    + " where delivery.id = ?)", Collections.nCopies(4, deliveryId));
+            driverDays.addAll(driverDays(deliveryId));
+
+            final Set<Long> cityIds = new HashSet<>();
+            for (final List<Long> driverDay : driverDays) {
+                final Long cityId = rebuildRollup(driverDay.get(0), driverDay.get(1));
+                if (cityId != null) {
+                    cityIds.add(cityId);
+                }
+            }
+            return cityIds;
+        });
+    }
+
+    /**
+     * @return driver and day of the delivery in the replica, none if it isn't there or has no driver.
+     */
+    private List<List<Long>> driverDays(final long deliveryId) {
+        return replica.query("select driver_id, delivery_time from delivery where id = ? and driver_id is not null"
+                + " and delivery_time is not null",
+                (rs, i) -> Arrays.asList(rs.getLong(1), ReportPeriod.epochDay(rs.getTimestamp(2).getTime())),
+                deliveryId);
+    }
+
+    /**
+     * sums the replica's deliveries of a driver on a day into its rollup row, the row is removed when there are
+     * none. ids of new rows are taken from the primary's sequence, so a later copy of the primary's row can't
+     * clash with another row.
+     * @return city of the driver, null if the driver isn't in the replica.
+     */
+    private Long rebuildRollup(final long driverId, final long epochDay) {
+        final ZoneId zone = ZoneId.systemDefault();
+        final Timestamp from = Timestamp.from(LocalDate.ofEpochDay(epochDay).atStartOfDay(zone).toInstant());
+        final Timestamp to = Timestamp.from(LocalDate.ofEpochDay(epochDay + 1).atStartOfDay(zone).toInstant());
+        final long[] sum = new long[2];
+        replica.query("select distance from delivery where driver_id = ? and delivery_time >= ?"
+                + " and delivery_time < ?", rs -> {
+            //every delivery is truncated on its own, as in the rollups of the primary
+            sum[0] += (long) rs.getDouble(1);
+            sum[1]++;
+        }, driverId, from, to);
+        final List<Long> cities = replica.queryForList("select city_id from named_entity where id = ?", Long.class,
+                driverId);
+        final Long cityId = cities.isEmpty() ? null : cities.get(0);
+
+        final int updated = sum[1] == 0
+                ? replica.update("delete from driver_daily_rollup where driver_id = ? and epoch_day = ?",
+                        driverId, epochDay)
+                : replica.update("update driver_daily_rollup set city_id = ?, total_distance = ?, deliveries = ? "
+                        + "where driver_id = ? and epoch_day = ?", cityId, sum[0], sum[1], driverId, epochDay);
+        if (sum[1] > 0 && updated == 0) {
+            final Long id = primary.queryForObject("select next value for hibernate_sequence", Long.class);
+            replica.update("insert into driver_daily_rollup (id, driver_id, city_id, epoch_day, total_distance, "
+                    + "deliveries) values (?, ?, ?, ?, ?, ?)", id, driverId, cityId, epochDay, sum[0], sum[1]);
+        }
+        return cityId;
+    }
+
+    /**
+     * copies all the named entities and removes the ones deleted from the primary.
+     */
+    private void copyNamedEntities() {
+        copy("named_entity", "id", "1 = 1", Collections.emptyList());
+        final Set<Long> removed = new HashSet<>(replica.queryForList("select id from named_entity", Long.class));
+        removed.removeAll(primary.queryForList("select id from named_entity", Long.class));
+        final List<Object[]> ids = new ArrayList<>();
+        removed.forEach(id -> ids.add(new Object[]{id}));
+        replica.batchUpdate("delete from named_entity where id = ?", ids);
+    }
+
+    /**
+     * merges the rows of the primary that match the condition into the replica, in batches.
+     * @param table - copied table, same columns on both sides.
+     * @param keys - columns a row is matched by.
+     * @param where - condition of the copied rows.
+     * @param args - arguments of the condition.
+     */
+    private void copy(final String table, final String keys, final String where, final List<?> args) {
+        primary.query("select * from " + table + " where " + where, rs -> {
+            final ResultSetMetaData meta = rs.getMetaData();
+            final int columns = meta.getColumnCount();
+            final StringJoiner names = new StringJoiner(", ");
+            final StringJoiner values = new StringJoiner(", ");
+            for (int c = 1; c <= columns; c++) {
+                names.add(meta.getColumnName(c));
+                values.add("?");
+            }
+            final String merge = "merge into " + table + " (" + names + ") key (" + keys + ") values (" + values + ")";
+            final List<Object[]> rows = new ArrayList<>(BATCH);
+            while (rs.next()) {
+                final Object[] row = new Object[columns];
+                for (int c = 0; c < columns; c++) {
+                    row[c] = rs.getObject(c + 1);
+                }
+                rows.add(row);
+                if (rows.size() == BATCH) {
+                    replica.batchUpdate(merge, rows);
+                    rows.clear();
+                }
+            }
+            if (!rows.isEmpty()) {
+                replica.batchUpdate(merge, rows);
+            }
+            return null;
+        }, args.toArray());
+    }
+
+    private static String in(final Collection<?> values) {
+        return "(" + String.join(", ", Collections.nCopies(values.size(), "?")) + ")";
+    }
+
+    private static class Change {
+        private final long queuedAt;
+        private final boolean full;
+        private final boolean namedEntities;
+        private final List<DeliveryRecordedEvent> deliveries;
+        /**
+         * an updated or removed delivery, null for other changes.
+         */
+        private final Long changedDeliveryId;
+
+        private Change(final long queuedAt, final boolean full, final boolean namedEntities,
+                       final List<DeliveryRecordedEvent> deliveries, final Long changedDeliveryId) {
+            this.queuedAt = queuedAt;
+            this.full = full;
+            this.namedEntities = namedEntities;
+            this.deliveries = deliveries;
+            this.changedDeliveryId = changedDeliveryId;
+        }
+
+        static Change full(final long queuedAt) {
+            return new Change(queuedAt, true, false, Collections.emptyList(), null);
+        }
+
+        static Change namedEntities(final long queuedAt) {
+            return new Change(queuedAt, false, true, Collections.emptyList(), null);
+        }
+
+        static Change deliveries(final List<DeliveryRecordedEvent> deliveries) {
+            return new Change(System.currentTimeMillis(), false, false, deliveries, null);
+        }
+
+        static Change changed(final long deliveryId) {
+            return new Change(System.currentTimeMillis(), false, false, Collections.emptyList(), deliveryId);
+        }
+    }
+}
@@ -0,0 +1,281 @@
+package com.walt.report;
+
+import com.walt.dao.CityRepository;
+import com.walt.dao.DriverRepository;
+import com.walt.dispatch.DispatchStateService;
+import com.walt.dispatch.DriverSchedule;
+import com.walt.event.DriverChangedEvent;
+import com.walt.event.DriverTotalChangedEvent;
+import com.walt.model.City;
+import com.walt.model.Driver;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.function.Consumer;
+
+/**
+ * all-time leaderboards of the cities, maintained incrementally from the in-memory driver totals.
+ * a city's board is built on its first subscriber and then kept sorted - a change moves a single entry to
+ * its new position, and the change is handed once to every subscriber of the city. a driver that leaves the
+ * city gets a change with position 0. boards are built only for cities that exist.
+ */
+@Component
+public class LiveLeaderboard {
+
+    @Autowired
+    private DispatchStateService dispatchState;
+    @Autowired
+    private DriverRepository driverRepo;
+    @Autowired
+    private CityRepository cityRepo;
+
+    private final Map<Long, CityBoard> boards = new ConcurrentHashMap<>();
+
+    /**
+     * subscribes to the rank changes of a city.
+     * @param cityId - the watched city.
+     * @param listener - called with every change, must not block.
+     * @return the current leaderboard, in position order.
+     */
+    public List<RankChange> subscribe(final long cityId, final Consumer<RankChange> listener) {
+        final CityBoard board = existingBoard(cityId);
+        synchronized (board) {
+            board.listeners.add(listener);
+            return board.snapshot();
+        }
+    }
+
+    /**
+     * @return the current leaderboard of a city, in position order.
+     */
+    public List<RankChange> snapshot(final long cityId) {
+        final CityBoard board = existingBoard(cityId);
+        synchronized (board) {
+            return board.snapshot();
+        }
+    }
+
+    /**
+     * hands the current leaderboard of a city to a callback while no change of the city is published - what the
+     * callback queues comes before every change after the board.
+     * @param cityId - the watched city.
+     * @param callback - gets the board in position order, must not block.
+     */
+    public void snapshot(final long cityId, final Consumer<List<RankChange>> callback) {
+        final CityBoard board = existingBoard(cityId);
+        synchronized (board) {
+            callback.accept(board.snapshot());
+        }
+    }
+
+    /**
+     * @return true if the city exists. its board is built if it wasn't yet.
+     */
+    public boolean hasCity(final long cityId) {
+        return board(cityId) != null;
+    }
+
+    public void unsubscribe(final long cityId, final Consumer<RankChange> listener) {
+        final CityBoard board = boards.get(cityId);
+        if (board != null) {
+            board.listeners.remove(listener);
+        }
+    }
+
+    @EventListener
+    public void onDriverTotalChanged(final DriverTotalChangedEvent e) {
+        final CityBoard board = boards.get(e.getCityId());
+        if (board == null) {
+            return;
+        }
+        final boolean known;
+        synchronized (board) {
+            known = board.byDriver.containsKey(e.getDriverId());
+        }
+        //a driver added after the board was built, its name is read before taking the lock
+        final String driverName = known ? null
+                : driverRepo.findById(e.getDriverId()).map(Driver::getName).orElse(null);
+        //listeners are called under the lock, so every subscriber sees the changes of a city in order
+        synchronized (board) {
+            board.update(e.getDriverId(), driverName, e.getDeliveries(), e.getTotalDistance(), e.isReloaded());
+        }
+    }
+
+    /**
+     * drivers were added, moved or removed - the boards are synced with the drivers of their cities. the event
+     * names the new city of a driver only, the board of the city it left is synced as well.
+     */
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDriverChanged(final DriverChangedEvent e) {
+        for (final CityBoard board : boards.values()) {
+            final List<Driver> drivers = driversOf(board.cityId);
+            synchronized (board) {
+                board.sync(drivers == null ? Collections.emptyList() : drivers);
+            }
+        }
+    }
+    //---------------------------------------------------------------------------
+    /**
+     * @return the board of the city.
+     * @throws IllegalArgumentException if there is no such city.
+     */
+    private CityBoard existingBoard(final long cityId) {
+        final CityBoard board = board(cityId);
+        if (board == null) {
+            throw new IllegalArgumentException("city " + cityId + " doesn't exist!");
+        }
+        return board;
+    }
+
+    /**
+     * @return the board of a city, built on first use. the drivers are read from the database before the board is
+     * published and without holding a lock. null if there is no such city.
+     */
+    private CityBoard board(final long cityId) {
+        final CityBoard existing = boards.get(cityId);
+        if (existing != null) {
+            return existing;
+        }
+        final List<Driver> drivers = driversOf(cityId);
+        if (drivers == null) {
+            return null;
+        }
+        final CityBoard loaded = new CityBoard(cityId);
+        synchronized (loaded) {
+            loaded.sync(drivers);
+        }
+        final CityBoard raced = boards.putIfAbsent(cityId, loaded);
+        if (raced != null) {
+            return raced;
+        }
+        //totals recorded while the board was built weren't published to it
+        synchronized (loaded) {
+            loaded.sync(drivers);
+        }
+        return loaded;
+    }
+
+    /**
+     * @return the drivers of a city, null if there is no such city.
+     */
+    private List<Driver> driversOf(final long cityId) {
+        final City city = cityRepo.findById(cityId).orElse(null);
+        return city == null ? null : driverRepo.findAllDriversByCity(city);
+    }
+
+    /**
+     * highest total distance first, ties by driver id so every entry has a single position.
+     */
+    private static final Comparator<Entry> ORDER = (e1, e2) -> e1.totalDistance != e2.totalDistance
+            ? Long.compare(e2.totalDistance, e1.totalDistance)
+            : Long.compare(e1.driverId, e2.driverId);
+
+    private static class Entry {
+        private final long driverId;
+        private final String driverName;
+        private int deliveries;
+        private long totalDistance;
+
+        Entry(final long driverId, final String driverName) {
+            this.driverId = driverId;
+            this.driverName = driverName;
+        }
+    }
+
+    private class CityBoard {
+        private final long cityId;
+        private final Map<Long, Entry> byDriver = new HashMap<>();
+        private final List<Entry> ranking = new ArrayList<>();
+        private final List<Consumer<RankChange>> listeners = new CopyOnWriteArrayList<>();
+
+        CityBoard(final long cityId) {
+            this.cityId = cityId;
+        }
+
+        /**
+         * moves the driver to the position of the new total, unless the event is older than what the board
+         * already shows.
+         * @param driverName - name of the driver, read when the driver isn't on the board yet.
+         * @param reloaded - the total may be lower than the current one, a delivery was updated or removed.
+         */
+        void update(final long driverId, final String driverName, final int deliveries, final long totalDistance,
+                    final boolean reloaded) {
+            final Entry entry = byDriver.get(driverId);
+            if (entry != null && !reloaded && deliveries <= entry.deliveries) {
+                return;
+            }
+            publish(move(driverId, driverName, deliveries, totalDistance));
+        }
+
+        /**
+         * makes the board hold the given drivers, with their totals as the dispatch state has them now. drivers
+         * that left the city get a change with position 0.
+         */
+        void sync(final List<Driver> drivers) {
+            final Set<Long> current = new HashSet<>();
+            for (final Driver d : drivers) {
+                current.add(d.getId());
+                int deliveries = 0;
+                long totalDistance = 0;
+                final DriverSchedule schedule = dispatchState.getState().getSchedule(d.getId());
+                if (schedule != null) {
+                    synchronized (schedule) {
+                        deliveries = schedule.getDeliveries();
+                        totalDistance = schedule.getTotalDistance();
+                    }
+                }
+                final Entry entry = byDriver.get(d.getId());
+                if (entry == null || entry.deliveries != deliveries || entry.totalDistance != totalDistance) {
+                    publish(move(d.getId(), d.getName(), deliveries, totalDistance));
+                }
+            }
+            for (final Iterator<Entry> it = byDriver.values().iterator(); it.hasNext(); ) {
+                final Entry entry = it.next();
+                if (!current.contains(entry.driverId)) {
+                    ranking.remove(Collections.binarySearch(ranking, entry, ORDER));
+                    it.remove();
+                    publish(new RankChange(cityId, entry.driverId, entry.driverName, entry.totalDistance, 0));
+                }
+            }
+        }
+
+        /**
+         * @return the change of the driver, at the position of its new total.
+         */
+        private RankChange move(final long driverId, final String driverName, final int deliveries,
+                                final long totalDistance) {
+            Entry entry = byDriver.get(driverId);
+            if (entry == null) {
+                entry = new Entry(driverId, driverName);
+                byDriver.put(driverId, entry);
+            } else {
+                ranking.remove(Collections.binarySearch(ranking, entry, ORDER));
+            }
+            entry.deliveries = deliveries;
+            entry.totalDistance = totalDistance;
+            final int position = -Collections.binarySearch(ranking, entry, ORDER) - 1;
+            ranking.add(position, entry);
+            return new RankChange(cityId, driverId, entry.driverName, totalDistance, position + 1);
+        }
+
+        private void publish(final RankChange change) {
+            for (final Consumer<RankChange> listener : listeners) {
+                listener.accept(change);
+            }
+        }
+
+        List<RankChange> snapshot() {
+            final List<RankChange> changes = new ArrayList<>(ranking.size());
+            for (int i = 0; i < ranking.size(); i++) {
+                final Entry e = ranking.get(i);
+                changes.add(new RankChange(cityId, e.driverId, e.driverName, e.totalDistance, i + 1));
+            }
+            return changes;
+        }
+    }
+}
@@ -0,0 +1,44 @@
+package com.walt.report;
+
+/**
+ * new total and position of a driver in the leaderboard of the driver's city.
+ */
+public class RankChange {
+    private final long cityId;
+    private final long driverId;
+    private final String driverName;
+    private final long totalDistance;
+    private final int position;
+
+    public RankChange(final long cityId, final long driverId, final String driverName, final long totalDistance,
+                      final int position) {
+        this.cityId = cityId;
+        this.driverId = driverId;
+        this.driverName = driverName;
+        this.totalDistance = totalDistance;
+        this.position = position;
+    }
+
+    public long getCityId() {
+        return cityId;
+    }
+
+    public long getDriverId() {
+        return driverId;
+    }
+
+    public String getDriverName() {
+        return driverName;
+    }
+
+    public long getTotalDistance() {
+        return totalDistance;
+    }
+
+    /**
+     * @return 1 for the driver with the highest total distance, 0 if the driver left the board.
+     */
+    public int getPosition() {
+        return position;
+    }
+}
@@ -0,0 +1,141 @@
+package com.walt.report;
+
+import com.walt.event.DeliveriesImportedEvent;
+import com.walt.event.DeliveryChangedEvent;
+import com.walt.event.DeliveryRecordedEvent;
+import com.walt.event.DriverChangedEvent;
+import com.walt.event.ReplicaUpdatedEvent;
+import com.walt.model.DriverDistance;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.event.EventListener;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.event.TransactionalEventListener;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * all-time rank reports cached per city.
+ * every city has a version that is bumped when a delivery of its drivers is saved or its drivers change,
+ * a cached report is served as long as it was computed at the current version, and a report is recomputed
+ * by a single caller while the others wait for it. with walt.report.cache.max-staleness-ms above 0, a report
+ * younger than that is served even if it's out of date - for dashboards that poll very often.
+ * versions follow the deliveries saved by this node only - with walt.cluster.enabled, where other nodes save
+ * deliveries too, a report is also recomputed once older than walt.report.cache.cluster-max-age-ms.
+ * with a read replica versions are bumped again when the replica caught up, a report computed from the
+ * replica in between isn't served for long.
+ */
+@Component
+public class RankReportCache {
+    /**
+     * key of the report of all the cities
+     */
+    public static final Long ALL_CITIES = -1L;
+
+    @Value("${walt.report.cache.max-staleness-ms:0}")
+    private long maxStalenessMillis;
+    @Value("${walt.cluster.enabled:false}")
+    private boolean clusterEnabled;
+    @Value("${walt.report.cache.cluster-max-age-ms:5000}")
+    private long clusterMaxAgeMillis;
+
+    private final Map<Long, AtomicLong> versions = new ConcurrentHashMap<>();
+    private final Map<Long, CachedReport> reports = new ConcurrentHashMap<>();
+    private final Map<Long, Object> locks = new ConcurrentHashMap<>();
+
+    /**
+     * @param cityId - the reported city, or ALL_CITIES.
+     * @param report - computes the report when the cached one is out of date.
+     * @return the report, shared between callers - must not be modified.
+     */
+    public List<DriverDistance> get(final Long cityId, final Supplier<List<DriverDistance>> report) {
+        CachedReport cached = reports.get(cityId);
+        if (isFresh(cached, cityId)) {
+            return cached.report;
+        }
+        synchronized (locks.computeIfAbsent(cityId, k -> new Object())) {
+            cached = reports.get(cityId);
+            if (isFresh(cached, cityId)) {
+                return cached.report;
+            }
+            //a change committed while computing bumps the version again, so the report is never served as newer
+            final long version = versionOf(cityId).get();
+            cached = new CachedReport(version, System.currentTimeMillis(), Collections.unmodifiableList(report.get()));
+            reports.put(cityId, cached);
+            return cached.report;
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDeliveryRecorded(final DeliveryRecordedEvent e) {
+        versionOf(e.getCityId()).incrementAndGet();
+        versionOf(ALL_CITIES).incrementAndGet();
+    }
+
+    @EventListener
+    public void onDeliveriesImported(final DeliveriesImportedEvent imported) {
+        for (final DeliveryRecordedEvent e : imported.getDeliveries()) {
+            versionOf(e.getCityId()).incrementAndGet();
+        }
+        versionOf(ALL_CITIES).incrementAndGet();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDeliveryChanged(final DeliveryChangedEvent e) {
+        //the delivery may have moved between cities
+        versions.values().forEach(AtomicLong::incrementAndGet);
+        versionOf(ALL_CITIES).incrementAndGet();
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDriverChanged(final DriverChangedEvent e) {
+        if (e.getCityId() == null) {
+            versions.values().forEach(AtomicLong::incrementAndGet);
+            reports.clear();
+        } else {
+            versionOf(e.getCityId()).incrementAndGet();
+        }
+        versionOf(ALL_CITIES).incrementAndGet();
+    }
+
+    @EventListener
+    public void onReplicaUpdated(final ReplicaUpdatedEvent e) {
+        if (e.getCityIds() == null) {
+            versions.values().forEach(AtomicLong::incrementAndGet);
+        } else {
+            e.getCityIds().forEach(cityId -> versionOf(cityId).incrementAndGet());
+        }
+        versionOf(ALL_CITIES).incrementAndGet();
+    }
+    //---------------------------------------------------------------------------
+    private boolean isFresh(final CachedReport cached, final Long cityId) {
+        if (cached == null) {
+            return false;
+        }
+        final long age = System.currentTimeMillis() - cached.computedAt;
+        if (clusterEnabled && age >= clusterMaxAgeMillis) {
+            return false;
+        }
+        return cached.version == versionOf(cityId).get() || age < maxStalenessMillis;
+    }
+
+    private AtomicLong versionOf(final Long cityId) {
+        return versions.computeIfAbsent(cityId, k -> new AtomicLong());
+    }
+
+    private static class CachedReport {
+        private final long version;
+        private final long computedAt;
+        private final List<DriverDistance> report;
+
+        CachedReport(final long version, final long computedAt, final List<DriverDistance> report) {
+            this.version = version;
+            this.computedAt = computedAt;
+            this.report = report;
+        }
+    }
+}
@@ -0,0 +1,183 @@
+package com.walt.report;
+
+import com.walt.comparator.Sortbydistance;
+import com.walt.model.Driver;
+import com.walt.model.DriverDistance;
+import com.walt.model.DriverDistanceImpl;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * builds every rank report - all time or by period, global, by city or all the cities at once.
+ * the reported drivers get a dense index, distances are summed into a long array by that index and
+ * large inputs are split across the fork-join pool. a row's driver is found by a binary search over the
+ * sorted driver ids - the rows come in boxed, as the query returns them, but nothing is hashed or allocated per
+ * row and the totals are primitive.
+ */
+@Component
+public class RankReportEngine {
+
+    /**
+     * smallest number of rows that is summed in parallel, also the size of the parallel chunks.
+     */
+    @Value("${walt.report.parallel-threshold:50000}")
+    private int parallelThreshold;
+
+    @PostConstruct
+    private void init() {
+        //a range is halved while it's bigger than the threshold, below 1 it would never stop
+        if (parallelThreshold < 1) {
+            throw new IllegalStateException("walt.report.parallel-threshold must be at least 1, got "
+                    + parallelThreshold);
+        }
+    }
+
+    /**
+     * @param drivers - the reported drivers, drivers without rows are reported with 0.
+     * @param rows - driver id and a distance, distances of the same driver are summed.
+     * @return rank report list, sorted descending.
+     */
+    public List<DriverDistance> rank(final Iterable<Driver> drivers, final List<Object[]> rows) {
+        final List<Driver> indexed = new ArrayList<>();
+        final long[] totals = sum(index(drivers, indexed), rows);
+        return sorted(indexed, totals, 0, indexed.size());
+    }
+
+    /**
+     * one pass over the rows for the reports of all the cities.
+     * @param drivers - the reported drivers.
+     * @param rows - driver id and a distance, distances of the same driver are summed.
+     * @return rank report list of every city, key - city id.
+     */
+    public Map<Long, List<DriverDistance>> rankByCity(final Iterable<Driver> drivers, final List<Object[]> rows) {
+        final List<Driver> byCity = new ArrayList<>();
+        for (final Driver d : drivers) {
+            if (d.getCity() != null) {
+                byCity.add(d);
+            }
+        }
+        byCity.sort(Comparator.comparing(d -> d.getCity().getId()));
+
+        final List<Driver> indexed = new ArrayList<>();
+        final long[] totals = sum(index(byCity, indexed), rows);
+        final Map<Long, List<DriverDistance>> reports = new HashMap<>();
+        int from = 0;
+        for (int i = 1; i <= indexed.size(); i++) {
+            if (i == indexed.size() || !indexed.get(i).getCity().getId().equals(indexed.get(from).getCity().getId())) {
+                reports.put(indexed.get(from).getCity().getId(), sorted(indexed, totals, from, i));
+                from = i;
+            }
+        }
+        return reports;
+    }
+    //---------------------------------------------------------------------------
+    /**
+     * @param indexed - filled with the drivers, in index order.
+     * @return the dense index of every driver.
+     */
+    private DriverIndex index(final Iterable<Driver> drivers, final List<Driver> indexed) {
+        final Set<Long> seen = new HashSet<>();
+        for (final Driver d : drivers) {
+            if (seen.add(d.getId())) {
+                indexed.add(d);
+            }
+        }
+        return new DriverIndex(indexed);
+    }
+
+    private long[] sum(final DriverIndex index, final List<Object[]> rows) {
+        final SumTask task = new SumTask(index, rows, 0, rows.size());
+        return rows.size() < parallelThreshold ? task.compute() : ForkJoinPool.commonPool().invoke(task);
+    }
+
+    private List<DriverDistance> sorted(final List<Driver> indexed, final long[] totals, final int from, final int to) {
+        final List<DriverDistance> rankLst = new ArrayList<>(to - from);
+        for (int i = from; i < to; i++) {
+            rankLst.add(new DriverDistanceImpl(indexed.get(i), totals[i]));
+        }
+        Collections.sort(rankLst, new Sortbydistance());
+        return rankLst;
+    }
+    //---------------------------------------------------------------------------
+    /**
+     * driver id to dense index, as sorted primitive arrays - a row's id is unboxed once and looked up with a
+     * binary search, without hashing.
+     */
+    private static final class DriverIndex {
+        private final long[] ids;
+        private final int[] indexes;
+
+        DriverIndex(final List<Driver> indexed) {
+            final long[] byIndex = new long[indexed.size()];
+            for (int i = 0; i < byIndex.length; i++) {
+                byIndex[i] = indexed.get(i).getId();
+            }
+            ids = byIndex.clone();
+            Arrays.sort(ids);
+            indexes = new int[ids.length];
+            for (int i = 0; i < byIndex.length; i++) {
+                indexes[Arrays.binarySearch(ids, byIndex[i])] = i;
+            }
+        }
+
+        int size() {
+            return ids.length;
+        }
+
+        /**
+         * @return index of the driver, -1 if it isn't reported.
+         */
+        int of(final long driverId) {
+            final int i = Arrays.binarySearch(ids, driverId);
+            return i < 0 ? -1 : indexes[i];
+        }
+    }
+
+    /**
+     * sums a range of rows, splitting it in halves while it's bigger than the threshold.
+     */
+    private class SumTask extends RecursiveTask<long[]> {
+        private final DriverIndex index;
+        private final List<Object[]> rows;
+        private final int from;
+        private final int to;
+
+        SumTask(final DriverIndex index, final List<Object[]> rows, final int from, final int to) {
+            this.index = index;
+            this.rows = rows;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected long[] compute() {
+            if (to - from > parallelThreshold) {
+                final int middle = (from + to) >>> 1;
+                final SumTask left = new SumTask(index, rows, from, middle);
+                left.fork();
+                final long[] totals = new SumTask(index, rows, middle, to).compute();
+                final long[] leftTotals = left.join();
+                for (int i = 0; i < totals.length; i++) {
+                    totals[i] += leftTotals[i];
+                }
+                return totals;
+            }
+
+            final long[] totals = new long[index.size()];
+            for (int i = from; i < to; i++) {
+                final Object[] row = rows.get(i);
+                final int driver = row[0] == null ? -1 : index.of((Long) row[0]);
+                if (driver >= 0) {
+                    //every delivery is truncated on its own
+                    totals[driver] += ((Number) row[1]).longValue();
+                }
+            }
+            return totals;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.walt.report;
+
+import java.time.DayOfWeek;
+import java.time.Instant;
+import java.time.LocalDate;
+import java.time.ZoneId;
+import java.time.temporal.TemporalAdjusters;
+
+/**
+ * period of a rank report. days are calendar days in the server's time zone, weeks start on monday.
+ */
+public enum ReportPeriod {
+    DAY {
+        @Override
+        public LocalDate first(final LocalDate day) {
+            return day;
+        }
+
+        @Override
+        public LocalDate last(final LocalDate day) {
+            return day;
+        }
+    },
+    WEEK {
+        @Override
+        public LocalDate first(final LocalDate day) {
+            return day.with(TemporalAdjusters.previousOrSame(DayOfWeek.MONDAY));
+        }
+
+        @Override
+        public LocalDate last(final LocalDate day) {
+            return day.with(TemporalAdjusters.nextOrSame(DayOfWeek.SUNDAY));
+        }
+    },
+    MONTH {
+        @Override
+        public LocalDate first(final LocalDate day) {
+            return day.withDayOfMonth(1);
+        }
+
+        @Override
+        public LocalDate last(final LocalDate day) {
+            return day.with(TemporalAdjusters.lastDayOfMonth());
+        }
+    };
+
+    /**
+     * @return first day of the period that contains the given day.
+     */
+    public abstract LocalDate first(final LocalDate day);
+
+    /**
+     * @return last day of the period that contains the given day.
+     */
+    public abstract LocalDate last(final LocalDate day);
+
+    /**
+     * @param millis - a point in time.
+     * @return the day it falls on, as used by the rollups.
+     */
+    public static long epochDay(final long millis) {
+        return Instant.ofEpochMilli(millis).atZone(ZoneId.systemDefault()).toLocalDate().toEpochDay();
+    }
+}
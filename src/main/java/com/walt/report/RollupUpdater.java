@@ -0,0 +1,214 @@
+package com.walt.report;
+
+import com.walt.dao.DeliveryRepository;
+import com.walt.dao.DriverDailyRollupRepository;
+import com.walt.event.DeliveriesImportedEvent;
+import com.walt.event.DeliveryRecordedEvent;
+import com.walt.model.DriverDailyRollup;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.event.TransactionalEventListener;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import javax.annotation.PostConstruct;
+import java.util.*;
+
+/**
+ * keeps the driver x day rollups in line with the deliveries.
+ * a committed delivery is merged into its rollup row in a transaction of its own - a single MERGE, so the
+ * nodes of a cluster never create the same row twice. a delivery whose merge was lost (the node stopped right
+ * after the commit) or that was updated later is caught by reconcile, on startup and every
+ * walt.rollups.reconcile-ms: the rollups of every driver are compared with its deliveries and recomputed when
+ * they don't match.
+ */
+@Component
+public class RollupUpdater {
+
+    private static final Logger log = LoggerFactory.getLogger(RollupUpdater.class);
+    private static final int BATCH = 1000;
+
+    @Autowired
+    private DriverDailyRollupRepository rollupRepo;
+    @Autowired
+    private DeliveryRepository deliveryRepo;
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private TransactionTemplate transactionTemplate;
+    /**
+     * key - driver id, value - deliveries and rollups counted by the last check for drivers that didn't match.
+     */
+    private Map<Long, List<Long>> mismatched = Collections.emptyMap();
+
+    @PostConstruct
+    private void init() {
+        transactionTemplate = new TransactionTemplate(transactionManager);
+        transactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+        //deliveries stored before the rollups existed, or whose merge was lost when the node stopped
+        if (rollupRepo.count() == 0 && deliveryRepo.count() > 0) {
+            rebuild();
+        } else {
+            reconcile();
+        }
+    }
+
+    @TransactionalEventListener(fallbackExecution = true)
+    public void onDeliveryRecorded(final DeliveryRecordedEvent e) {
+        final DriverDailyRollup rollup = new DriverDailyRollup(e.getDriverId(), e.getCityId(),
+                ReportPeriod.epochDay(e.getDeliveryTime()));
+        //same rounding as the rank report - every delivery is truncated on its own
+        rollup.add((long) e.getDistance(), 1);
+        apply(Collections.singletonList(rollup));
+    }
+
+    /**
+     * an imported batch is summed per driver and day first, then applied in a single transaction.
+     */
+    @EventListener
+    public void onDeliveriesImported(final DeliveriesImportedEvent imported) {
+        final Map<Long, Map<Long, DriverDailyRollup>> rollups = new HashMap<>(); //key - driver id, then day
+        for (final DeliveryRecordedEvent e : imported.getDeliveries()) {
+            final long epochDay = ReportPeriod.epochDay(e.getDeliveryTime());
+            rollups.computeIfAbsent(e.getDriverId(), k -> new HashMap<>())
+                    .computeIfAbsent(epochDay, k -> new DriverDailyRollup(e.getDriverId(), e.getCityId(), epochDay))
+                    .add((long) e.getDistance(), 1);
+        }
+        final List<DriverDailyRollup> increments = new ArrayList<>();
+        rollups.values().forEach(days -> increments.addAll(days.values()));
+        apply(increments);
+    }
+
+    /**
+     * merges the increments into their rollup rows.
+     */
+    private void apply(final List<DriverDailyRollup> increments) {
+        transactionTemplate.execute(status -> {
+            for (final DriverDailyRollup increment : increments) {
+                rollupRepo.mergeDeliveries(increment.getDriverId(), increment.getCityId(), increment.getEpochDay(),
+                        increment.getTotalDistance(), increment.getDeliveries());
+            }
+            return null;
+        });
+    }
+    //---------------------------------------------------------------------------
+    /**
+     * compares the rollups of every driver with the driver's deliveries, and recomputes them when they differ.
+     * @return number of drivers whose rollups were recomputed.
+     */
+    public synchronized int reconcile() {
+        final Map<Long, List<Long>> current = findMismatched();
+        rebuild(current.keySet());
+        mismatched = Collections.emptyMap();
+        return current.size();
+    }
+
+    /**
+     * reconcile for a running node - a delivery committed right before the check is merged into its rollup a
+     * moment later, so a driver is recomputed only when it's off by the same counts two checks in a row.
+     */
+    @Scheduled(fixedDelayString = "${walt.rollups.reconcile-ms:600000}",
+            initialDelayString = "${walt.rollups.reconcile-ms:600000}")
+    public synchronized void reconcileStable() {
+        final Map<Long, List<Long>> current = findMismatched();
+        final Set<Long> stable = new HashSet<>();
+        current.forEach((driverId, counts) -> {
+            if (counts.equals(mismatched.get(driverId))) {
+                stable.add(driverId);
+            }
+        });
+        rebuild(stable);
+        current.keySet().removeAll(stable);
+        mismatched = current;
+    }
+
+    /**
+     * @return key - id of a driver whose rollups don't add up to its deliveries, value - number of deliveries
+     * and their total distance, then the same of the rollups.
+     */
+    private Map<Long, List<Long>> findMismatched() {
+        final Map<Long, Object[]> rollups = new HashMap<>();
+        for (final Object[] row : rollupRepo.sumByDriver()) {
+            rollups.put((Long) row[0], row);
+        }
+        final Map<Long, List<Long>> found = new HashMap<>();
+        for (final Object[] row : deliveryRepo.sumByDriver()) {
+            final Long driverId = (Long) row[0];
+            final long deliveries = (Long) row[1];
+            final double distance = (Double) row[2];
+            final Object[] rollup = rollups.remove(driverId);
+            final long rolledUp = rollup == null ? 0 : ((Number) rollup[1]).longValue();
+            final long rolledUpDistance = rollup == null ? 0 : ((Number) rollup[2]).longValue();
+            //every delivery is truncated on its own, so the rollups are short of the total by less than 1 Km each
+            if (rolledUp != deliveries || rolledUpDistance > distance + 1e-6
+                    || rolledUpDistance <= distance - deliveries + 1e-6) {
+                found.put(driverId, Arrays.asList(deliveries, (long) distance, rolledUp, rolledUpDistance));
+            }
+        }
+        //rollups of drivers whose deliveries are all gone
+        rollups.forEach((driverId, rollup) -> found.put(driverId,
+                Arrays.asList(0L, 0L, ((Number) rollup[1]).longValue(), ((Number) rollup[2]).longValue())));
+        return found;
+    }
+
+    /**
+     * recomputes the rollups of some drivers from their deliveries.
+     */
+    private void rebuild(final Collection<Long> driverIds) {
+        if (driverIds.isEmpty()) {
+            return;
+        }
+        final List<Long> drivers = new ArrayList<>(driverIds);
+        for (int from = 0; from < drivers.size(); from += BATCH) {
+            final List<Long> batch = drivers.subList(from, Math.min(from + BATCH, drivers.size()));
+            final Map<Long, Map<Long, DriverDailyRollup>> rollups = sum(
+                    deliveryRepo.findAllAssignmentsByDrivers(batch));
+            transactionTemplate.execute(status -> {
+                rollupRepo.deleteByDrivers(batch);
+                for (final Map<Long, DriverDailyRollup> days : rollups.values()) {
+                    rollupRepo.saveAll(days.values());
+                }
+                return null;
+            });
+        }
+        log.warn("driver rollups of {} drivers didn't match their deliveries and were recomputed", drivers.size());
+    }
+
+    /**
+     * recomputes all the rollups from the deliveries table.
+     */
+    public synchronized void rebuild() {
+        final long start = System.currentTimeMillis();
+        final Map<Long, Map<Long, DriverDailyRollup>> rollups = sum(deliveryRepo.findAllAssignments());
+        transactionTemplate.execute(status -> {
+            rollupRepo.deleteAll();
+            for (final Map<Long, DriverDailyRollup> days : rollups.values()) {
+                rollupRepo.saveAll(days.values());
+            }
+            return null;
+        });
+        mismatched = Collections.emptyMap();
+        log.info("driver rollups rebuilt in {} ms", System.currentTimeMillis() - start);
+    }
+
+    /**
+     * @param assignments - rows of findAllAssignments.
+     * @return key - driver id, then day.
+     */
+    private static Map<Long, Map<Long, DriverDailyRollup>> sum(final List<Object[]> assignments) {
+        final Map<Long, Map<Long, DriverDailyRollup>> rollups = new HashMap<>();
+        for (final Object[] row : assignments) {
+            final Long driverId = (Long) row[0];
+            final long epochDay = ReportPeriod.epochDay(((Date) row[2]).getTime());
+            rollups.computeIfAbsent(driverId, k -> new HashMap<>())
+                    .computeIfAbsent(epochDay, k -> new DriverDailyRollup(driverId, (Long) row[1], epochDay))
+                    .add(((Double) row[3]).longValue(), 1);
+        }
+        return rollups;
+    }
+}
@@ -0,0 +1,93 @@
+package com.walt.simulation;
+
+import com.walt.dao.DeliveryRepository;
+import com.walt.dispatch.CityRoster;
+import com.walt.dispatch.DispatchState;
+import com.walt.model.City;
+import com.walt.model.Delivery;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import java.time.ZoneId;
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * what-if runs of a city's demand against fleets of different sizes, to find how many drivers a city needs.
+ * every run replays the orders in time order through a DispatchState of its own - the same free driver
+ * bitsets, overlap checks and balancing as the live dispatcher, without the database. runs share nothing,
+ * so they are spread over the cores.
+ */
+@Component
+public class CapacitySimulator {
+
+    @Value("${walt.dispatch.balance:workload}")
+    private String balance;
+    @Value("${walt.dispatch.workload.decay-days:7}")
+    private double workloadDecayDays;
+    @Value("${walt.dispatch.workload.per-km:0.1}")
+    private double workloadPerKm;
+
+    @Autowired
+    private DeliveryRepository deliveryRepo;
+
+    /**
+     * the stored deliveries of a city. orders that were rejected were never stored, so this is a lower
+     * bound of the real demand.
+     */
+    public Demand historicalDemand(final City city) {
+        final List<Object[]> rows = new ArrayList<>(deliveryRepo.findAllAssignmentsByCity(city.getId()));
+        rows.sort(Comparator.comparing(row -> (Date) row[2]));
+        final long[] starts = new long[rows.size()];
+        final double[] distances = new double[rows.size()];
+        long to = Long.MIN_VALUE;
+        for (int i = 0; i < starts.length; i++) {
+            starts[i] = ((Date) rows.get(i)[2]).getTime();
+            distances[i] = (Double) rows.get(i)[3];
+            to = Math.max(to, starts[i] + Delivery.durationOf(distances[i]));
+        }
+        return new Demand(starts, distances, starts.length == 0 ? 0 : starts[0], starts.length == 0 ? 0 : to);
+    }
+
+    /**
+     * @param demand - orders of a city.
+     * @param fleetSizes - numbers of drivers to try, all on shift around the clock.
+     * @return result of every fleet size, in the same order.
+     */
+    public List<SimulationResult> simulate(final Demand demand, final int[] fleetSizes) {
+        return Arrays.stream(fleetSizes)
+                .boxed()
+                .parallel()
+                .map(fleetSize -> run(demand, fleetSize))
+                .collect(Collectors.toList());
+    }
+    //---------------------------------------------------------------------------
+    private SimulationResult run(final Demand demand, final int fleetSize) {
+        final long cityId = 1;
+        final DispatchState state = new DispatchState(ZoneId.systemDefault(),
+                (long) (workloadDecayDays * 24 * 60 * 60 * 1000), workloadPerKm);
+        final List<Long> drivers = new ArrayList<>(fleetSize);
+        for (long id = 1; id <= fleetSize; id++) {
+            drivers.add(id);
+        }
+        final CityRoster roster = state.refreshRoster(cityId, drivers, Collections.emptyMap());
+        final boolean byCount = "count".equals(balance);
+
+        int rejected = 0;
+        long busyMillis = 0;
+        for (int i = 0; i < demand.size(); i++) {
+            final long start = demand.startOf(i);
+            final long end = start + Delivery.durationOf(demand.distanceOf(i));
+            final int index = state.selectDriver(roster, start, end, byCount);
+            if (index < 0) {
+                rejected++;
+            } else {
+                state.record(roster.driverAt(index), cityId, start, end, demand.distanceOf(i));
+                busyMillis += Math.min(end, demand.getTo()) - start;
+            }
+        }
+        return new SimulationResult(fleetSize, demand.size(), rejected, busyMillis,
+                demand.getTo() - demand.getFrom());
+    }
+}
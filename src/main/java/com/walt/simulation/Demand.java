@@ -0,0 +1,81 @@
+package com.walt.simulation;
+
+import java.util.Arrays;
+import java.util.Random;
+
+/**
+ * the orders of a city over some period - start time and distance of each, ordered by start time.
+ */
+public class Demand {
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+    /**
+     * same range as the distances given by WaltServiceImpl
+     */
+    private static final int MAX_DISTANCE = 20;
+
+    private final long[] starts;
+    private final double[] distances;
+    private final long from;
+    private final long to;
+
+    /**
+     * @param starts - start times of the orders in millis, sorted.
+     * @param distances - distance of every order in Km.
+     * @param from - start of the period in millis.
+     * @param to - end of the period in millis.
+     */
+    public Demand(final long[] starts, final double[] distances, final long from, final long to) {
+        this.starts = starts;
+        this.distances = distances;
+        this.from = from;
+        this.to = to;
+    }
+
+    /**
+     * poisson arrivals at a fixed rate with random distances, like the orders of the service.
+     * @param from - start of the period in millis.
+     * @param hours - length of the period.
+     * @param ordersPerHour - average rate.
+     * @param seed - equal seeds give the same orders.
+     */
+    public static Demand generated(final long from, final int hours, final double ordersPerHour, final long seed) {
+        final Random random = new Random(seed);
+        final long to = from + hours * HOUR_MILLIS;
+        long[] starts = new long[1024];
+        double[] distances = new double[1024];
+        int size = 0;
+        for (long t = from + gap(ordersPerHour, random); t < to; t += gap(ordersPerHour, random)) {
+            if (size == starts.length) {
+                starts = Arrays.copyOf(starts, size * 2);
+                distances = Arrays.copyOf(distances, size * 2);
+            }
+            starts[size] = t;
+            distances[size++] = random.nextInt(MAX_DISTANCE + 1);
+        }
+        return new Demand(Arrays.copyOf(starts, size), Arrays.copyOf(distances, size), from, to);
+    }
+
+    private static long gap(final double ordersPerHour, final Random random) {
+        return (long) (-Math.log(1 - random.nextDouble()) / ordersPerHour * HOUR_MILLIS);
+    }
+
+    public int size() {
+        return starts.length;
+    }
+
+    public long startOf(final int order) {
+        return starts[order];
+    }
+
+    public double distanceOf(final int order) {
+        return distances[order];
+    }
+
+    public long getFrom() {
+        return from;
+    }
+
+    public long getTo() {
+        return to;
+    }
+}
@@ -0,0 +1,74 @@
+package com.walt.simulation;
+
+import com.walt.dao.CityRepository;
+import com.walt.model.City;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.ApplicationArguments;
+import org.springframework.boot.ApplicationRunner;
+import org.springframework.stereotype.Component;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * runs a capacity simulation given on the command line:
+ * --walt.simulate.city=Tel-Aviv [--walt.simulate.fleet=2,4,8,16,32]
+ * replays the stored deliveries of the city, or generated orders with
+ * --walt.simulate.orders-per-hour=20 [--walt.simulate.hours=168] [--walt.simulate.seed=1].
+ * with these options WaltApplication starts without the web server and exits after the report.
+ */
+@Component
+public class SimulationCommandRunner implements ApplicationRunner {
+
+    private static final Logger log = LoggerFactory.getLogger(SimulationCommandRunner.class);
+    public static final String CITY = "walt.simulate.city";
+    private static final String FLEET = "walt.simulate.fleet";
+    private static final String ORDERS_PER_HOUR = "walt.simulate.orders-per-hour";
+    private static final String HOURS = "walt.simulate.hours";
+    private static final String SEED = "walt.simulate.seed";
+
+    @Autowired
+    private CapacitySimulator simulator;
+    @Autowired
+    private CityRepository cityRepo;
+
+    @Override
+    public void run(final ApplicationArguments args) throws Exception {
+        if (!args.containsOption(CITY)) {
+            return;
+        }
+        final String cityName = args.getOptionValues(CITY).get(0);
+        final City city = cityRepo.findByName(cityName);
+        if (city == null) {
+            throw new Exception("city '" + cityName + "' doesn't exist in the system!");
+        }
+        final int[] fleetSizes = Arrays.stream(option(args, FLEET, "2,4,8,16,32").split(","))
+                .mapToInt(s -> Integer.parseInt(s.trim()))
+                .toArray();
+
+        final Demand demand;
+        if (args.containsOption(ORDERS_PER_HOUR)) {
+            demand = Demand.generated(System.currentTimeMillis(), Integer.parseInt(option(args, HOURS, "168")),
+                    Double.parseDouble(option(args, ORDERS_PER_HOUR, "0")), Long.parseLong(option(args, SEED, "1")));
+        } else {
+            demand = simulator.historicalDemand(city);
+        }
+
+        final long start = System.currentTimeMillis();
+        final List<SimulationResult> results = simulator.simulate(demand, fleetSizes);
+        final StringBuilder report = new StringBuilder()
+                .append("capacity of ").append(city.getName()).append(", ").append(demand.size()).append(" orders\n")
+                .append("| drivers | orders | rejected | rejection rate | utilization |\n")
+                .append("|---|---|---|---|---|\n");
+        for (final SimulationResult result : results) {
+            report.append(result).append('\n');
+        }
+        log.info("{}simulated {} fleet sizes in {} ms", report, results.size(), System.currentTimeMillis() - start);
+    }
+
+    private static String option(final ApplicationArguments args, final String name, final String defaultValue) {
+        return args.containsOption(name) ? args.getOptionValues(name).get(0) : defaultValue;
+    }
+}
@@ -0,0 +1,50 @@
+package com.walt.simulation;
+
+/**
+ * outcome of replaying a demand with a fleet of some size.
+ */
+public class SimulationResult {
+    private final int fleetSize;
+    private final int orders;
+    private final int rejected;
+    private final long busyMillis;
+    private final long periodMillis;
+
+    SimulationResult(final int fleetSize, final int orders, final int rejected, final long busyMillis,
+                     final long periodMillis) {
+        this.fleetSize = fleetSize;
+        this.orders = orders;
+        this.rejected = rejected;
+        this.busyMillis = busyMillis;
+        this.periodMillis = periodMillis;
+    }
+
+    public int getFleetSize() {
+        return fleetSize;
+    }
+
+    public int getOrders() {
+        return orders;
+    }
+
+    public int getRejected() {
+        return rejected;
+    }
+
+    public double getRejectionRate() {
+        return orders == 0 ? 0 : rejected / (double) orders;
+    }
+
+    /**
+     * @return share of the fleet's time spent on deliveries, between 0 and 1.
+     */
+    public double getUtilization() {
+        return fleetSize == 0 || periodMillis <= 0 ? 0 : busyMillis / ((double) fleetSize * periodMillis);
+    }
+
+    @Override
+    public String toString() {
+        return String.format("| %d | %d | %d | %.1f%% | %.1f%% |", fleetSize, orders, rejected,
+                getRejectionRate() * 100, getUtilization() * 100);
+    }
+}
@@ -0,0 +1,185 @@
+package com.walt.web;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.walt.report.LiveLeaderboard;
+import com.walt.report.RankChange;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.GetMapping;
+import org.springframework.web.bind.annotation.PathVariable;
+import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+
+import javax.annotation.PostConstruct;
+import javax.annotation.PreDestroy;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Consumer;
+
+/**
+ * server-sent-event stream of the leaderboard of a city.
+ * a client gets a "leaderboard" event with the whole board, which replaces what it shows, and a "rank" event
+ * with the new total and position of a driver on every change. a city has a single subscription to the
+ * leaderboard no matter how many clients watch it - a change is serialized once and queued to every client.
+ * every client has a queue of its own, written by a pool of sender threads one client at a time, so a slow
+ * client delays only itself - and is dropped once walt.leaderboard.max-pending events wait for it.
+ * never written from the thread that recorded the delivery. an unknown city gets 404.
+ */
+@RestController
+public class LeaderboardController {
+
+    @Value("${walt.leaderboard.stream-timeout-ms:1800000}")
+    private long streamTimeoutMillis;
+    @Value("${walt.leaderboard.sender-threads:4}")
+    private int senderThreads;
+    @Value("${walt.leaderboard.max-pending:1000}")
+    private int maxPending;
+
+    @Autowired
+    private LiveLeaderboard leaderboard;
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    private final Map<Long, CityStream> streams = new ConcurrentHashMap<>();
+    private ExecutorService sender;
+
+    @PostConstruct
+    private void init() {
+        final AtomicInteger threads = new AtomicInteger();
+        sender = Executors.newFixedThreadPool(senderThreads, r -> {
+            final Thread t = new Thread(r, "leaderboard-sender-" + threads.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        });
+    }
+
+    @GetMapping(path = "/leaderboard/{cityId}/stream", produces = MediaType.TEXT_EVENT_STREAM_VALUE)
+    public ResponseEntity<SseEmitter> stream(@PathVariable("cityId") final long cityId) {
+        if (!leaderboard.hasCity(cityId)) {
+            return ResponseEntity.notFound().build();
+        }
+        final SseEmitter emitter = new SseEmitter(streamTimeoutMillis);
+        final CityStream stream = streams.computeIfAbsent(cityId, id -> {
+            final CityStream s = new CityStream();
+            leaderboard.subscribe(id, s);
+            return s;
+        });
+        final Client client = new Client(stream, emitter);
+        emitter.onCompletion(client::close);
+        emitter.onTimeout(client::close);
+        emitter.onError(e -> client.close());
+        //no change is published meanwhile - changes before the board are part of it, changes after it follow it
+        leaderboard.snapshot(cityId, board -> {
+            client.send("leaderboard", toJson(board));
+            stream.clients.add(client);
+        });
+        return ResponseEntity.ok(emitter);
+    }
+
+    private String toJson(final Object value) {
+        try {
+            return objectMapper.writeValueAsString(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @PreDestroy
+    private void close() {
+        sender.shutdownNow();
+    }
+    //---------------------------------------------------------------------------
+    /**
+     * the clients watching a single city.
+     */
+    private class CityStream implements Consumer<RankChange> {
+        private final Queue<Client> clients = new ConcurrentLinkedQueue<>();
+
+        @Override
+        public void accept(final RankChange change) {
+            if (clients.isEmpty()) {
+                return;
+            }
+            final String json = toJson(change);
+            for (final Client client : clients) {
+                client.send("rank", json);
+            }
+        }
+    }
+
+    /**
+     * a single client and the events waiting for it, in order.
+     */
+    private class Client {
+        private final CityStream stream;
+        private final SseEmitter emitter;
+        private final Queue<SseEmitter.SseEventBuilder> pending = new ConcurrentLinkedQueue<>();
+        private final AtomicInteger size = new AtomicInteger();
+        private final AtomicBoolean sending = new AtomicBoolean();
+        private volatile boolean closed;
+
+        Client(final CityStream stream, final SseEmitter emitter) {
+            this.stream = stream;
+            this.emitter = emitter;
+        }
+
+        /**
+         * queues an event, it's written by a sender thread.
+         */
+        void send(final String name, final String json) {
+            if (closed) {
+                return;
+            }
+            if (size.incrementAndGet() > maxPending) {
+                //too slow to follow - it reconnects and starts over from a fresh board
+                close();
+                emitter.complete();
+                return;
+            }
+            pending.add(SseEmitter.event().name(name).data(json));
+            schedule();
+        }
+
+        void close() {
+            closed = true;
+            stream.clients.remove(this);
+            pending.clear();
+        }
+
+        private void schedule() {
+            if (!pending.isEmpty() && sending.compareAndSet(false, true)) {
+                try {
+                    sender.execute(this::drain);
+                } catch (RejectedExecutionException e) {
+                    //shutting down
+                    sending.set(false);
+                }
+            }
+        }
+
+        private void drain() {
+            try {
+                SseEmitter.SseEventBuilder event;
+                while (!closed && (event = pending.poll()) != null) {
+                    size.decrementAndGet();
+                    emitter.send(event);
+                }
+            } catch (IOException | IllegalStateException e) {
+                //the client went away
+                close();
+            } finally {
+                sending.set(false);
+            }
+            //an event queued after the last poll but before sending was cleared
+            schedule();
+        }
+    }
+}
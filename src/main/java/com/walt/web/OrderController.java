@@ -0,0 +1,189 @@
+package com.walt.web;
+
+import com.walt.WaltService;
+import com.walt.cluster.CityNotOwnedException;
+import com.walt.dao.CustomerRepository;
+import com.walt.dao.DeliveryRepository;
+import com.walt.dao.RestaurantRepository;
+import com.walt.dispatch.DispatchStateService;
+import com.walt.dispatch.RequestKeyReusedException;
+import com.walt.model.Customer;
+import com.walt.model.Delivery;
+import com.walt.model.Restaurant;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.format.annotation.DateTimeFormat;
+import org.springframework.http.HttpEntity;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.http.client.SimpleClientHttpRequestFactory;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.client.ResourceAccessException;
+import org.springframework.web.client.RestClientResponseException;
+import org.springframework.web.client.RestTemplate;
+import org.springframework.web.util.UriComponentsBuilder;
+
+import javax.annotation.PostConstruct;
+import java.net.URI;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.TimeZone;
+
+/**
+ * http entry point for orders. an order that reaches a node which doesn't own the customer's city
+ * is forwarded once to the owner node.
+ */
+@RestController
+@RequestMapping("/orders")
+public class OrderController {
+    /**
+     * marks a request that was already forwarded by another node
+     */
+    static final String FORWARDED_HEADER = "X-Walt-Forwarded";
+    /**
+     * same value on every retry of an order, the retries get the delivery of the first request
+     */
+    static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+    private static final String ISO_DATE_TIME = "yyyy-MM-dd'T'HH:mm:ss.SSSXXX";
+    private static final long DAY_MILLIS = 24 * 60 * 60 * 1000;
+
+    /**
+     * how far from now a delivery time may be, in days
+     */
+    @Value("${walt.orders.max-days-ahead:30}")
+    private long maxDaysAhead;
+    @Value("${walt.orders.max-days-behind:1}")
+    private long maxDaysBehind;
+
+    @Autowired
+    private WaltService waltService;
+    @Autowired
+    private CustomerRepository customerRepo;
+    @Autowired
+    private RestaurantRepository restaurantRepo;
+    @Autowired
+    private DeliveryRepository deliveryRepo;
+    @Autowired
+    private DispatchStateService dispatchState;
+
+    /**
+     * timeouts of a forward to the owner of a city, in millis
+     */
+    @Value("${walt.cluster.forward.connect-timeout-ms:2000}")
+    private int connectTimeoutMillis;
+    @Value("${walt.cluster.forward.read-timeout-ms:10000}")
+    private int readTimeoutMillis;
+
+    private RestTemplate restTemplate;
+
+    @PostConstruct
+    private void init() {
+        final SimpleClientHttpRequestFactory requestFactory = new SimpleClientHttpRequestFactory();
+        requestFactory.setConnectTimeout(connectTimeoutMillis);
+        requestFactory.setReadTimeout(readTimeoutMillis);
+        restTemplate = new RestTemplate(requestFactory);
+    }
+
+    /**
+     * creates an order and assigns a driver to it.
+     * @param customerName - name of the customer who made the order.
+     * @param restaurantName - name of the restaurant the customer ordered from.
+     * @param deliveryTime - chosen time for delivery, ISO format.
+     * @param forwarded - set when the request comes from another node.
+     * @param requestKey - idempotency key of the request, optional.
+     * @return the saved delivery, or the error message - 422 when the request key was used for another order.
+     */
+    @PostMapping
+    public ResponseEntity<?> createOrder(@RequestParam("customer") final String customerName,
+                                         @RequestParam("restaurant") final String restaurantName,
+                                         @RequestParam("deliveryTime")
+                                         @DateTimeFormat(pattern = ISO_DATE_TIME) final Date deliveryTime,
+                                         @RequestHeader(value = FORWARDED_HEADER, defaultValue = "false")
+                                         final boolean forwarded,
+                                         @RequestHeader(value = IDEMPOTENCY_KEY_HEADER, required = false)
+                                         final String requestKey) {
+        final Customer customer = customerRepo.findByName(customerName);
+        final Restaurant restaurant = restaurantRepo.findByName(restaurantName);
+        if (restaurant == null) {
+            return ResponseEntity.badRequest().body("restaurant doesn't exist in the system!");
+        }
+        final long now = System.currentTimeMillis();
+        if (deliveryTime.getTime() > now + maxDaysAhead * DAY_MILLIS
+                || deliveryTime.getTime() < now - maxDaysBehind * DAY_MILLIS) {
+            return ResponseEntity.badRequest().body("delivery time must be between " + maxDaysBehind
+                    + " days ago and " + maxDaysAhead + " days from now!");
+        }
+
+        return order(customer, restaurant, deliveryTime, requestKey, forwarded, false);
+    }
+    //---------------------------------------------------------------------------
+    /**
+     * creates the order on this node, or forwards it when another node owns the city.
+     * @param forwarded - the request comes from another node, it's not forwarded again.
+     * @param ownerUnreachable - the owner didn't answer a forward, 503 unless this node took the city over.
+     */
+    private ResponseEntity<?> order(final Customer customer, final Restaurant restaurant, final Date deliveryTime,
+                                    final String requestKey, final boolean forwarded,
+                                    final boolean ownerUnreachable) {
+        try {
+            if (requestKey != null) {
+                return ResponseEntity.ok(waltService.createOrderAndAssignDriver(requestKey, customer, restaurant,
+                        deliveryTime));
+            }
+            final Delivery delivery = waltService.createOrderAndAssignDriver(customer, restaurant, deliveryTime);
+            try {
+                return ResponseEntity.ok(deliveryRepo.save(delivery));
+            } catch (RuntimeException e) {
+                //rolled back, the driver reserved for the delivery is free again
+                dispatchState.release(delivery);
+                throw e;
+            }
+        } catch (RequestKeyReusedException e) {
+            return ResponseEntity.unprocessableEntity().body(e.getMessage());
+        } catch (CityNotOwnedException e) {
+            if (ownerUnreachable) {
+                return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                        .body("owner of the city " + e.getOwnerUrl() + " doesn't answer, try again later!");
+            }
+            if (forwarded) {
+                return ResponseEntity.status(HttpStatus.CONFLICT).body(e.getMessage());
+            }
+            return forward(e.getOwnerUrl(), customer, restaurant, deliveryTime, requestKey);
+        } catch (Exception e) {
+            return ResponseEntity.badRequest().body(e.getMessage());
+        }
+    }
+
+    /**
+     * sends the order to the node that owns its city and relays the answer. when the owner can't be reached
+     * the order is tried here once more - the city is taken over if the owner's lease ran out meanwhile.
+     */
+    private ResponseEntity<?> forward(final String ownerUrl, final Customer customer, final Restaurant restaurant,
+                                      final Date deliveryTime, final String requestKey) {
+        final SimpleDateFormat format = new SimpleDateFormat(ISO_DATE_TIME);
+        format.setTimeZone(TimeZone.getTimeZone("UTC"));
+        final URI uri = UriComponentsBuilder.fromHttpUrl(ownerUrl)
+                .path("/orders")
+                .queryParam("customer", customer.getName())
+                .queryParam("restaurant", restaurant.getName())
+                .queryParam("deliveryTime", format.format(deliveryTime))
+                .build()
+                .encode()
+                .toUri();
+
+        final HttpHeaders headers = new HttpHeaders();
+        headers.set(FORWARDED_HEADER, "true");
+        if (requestKey != null) {
+            headers.set(IDEMPOTENCY_KEY_HEADER, requestKey);
+        }
+        try {
+            return restTemplate.postForEntity(uri, new HttpEntity<>(headers), String.class);
+        } catch (RestClientResponseException e) {
+            return ResponseEntity.status(e.getRawStatusCode()).body(e.getResponseBodyAsString());
+        } catch (ResourceAccessException e) {
+            //down, or slower than the read timeout
+            return order(customer, restaurant, deliveryTime, requestKey, true, true);
+        }
+    }
+}
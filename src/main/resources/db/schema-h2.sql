@@ -0,0 +1,70 @@
+-- Pre-built schema, used instead of hibernate's ddl-auto by the fast-start profile.
+-- Keep in line with the entities in com.walt.model.
+-- H2 specific SQL outside this file: DriverDailyRollupRepository.mergeDeliveries, ReplicaSync.copy.
+create sequence if not exists hibernate_sequence start with 1 increment by 1;
+
+create table if not exists named_entity (
+    dtype varchar(31) not null,
+    id bigint not null,
+    name varchar(255),
+    address varchar(255),
+    city_id bigint,
+    primary key (id),
+    foreign key (city_id) references named_entity (id)
+);
+
+create table if not exists delivery (
+    id bigint not null,
+    delivery_time timestamp,
+    end_time timestamp,
+    distance double not null,
+    customer_id bigint,
+    driver_id bigint,
+    restaurant_id bigint,
+    primary key (id),
+    foreign key (customer_id) references named_entity (id),
+    foreign key (driver_id) references named_entity (id),
+    foreign key (restaurant_id) references named_entity (id)
+);
+
+create table if not exists city_lease (
+    city_id bigint not null,
+    expires_at timestamp,
+    owner_node varchar(255),
+    owner_url varchar(255),
+    version bigint,
+    primary key (city_id)
+);
+
+create table if not exists driver_daily_rollup (
+    id bigint not null,
+    driver_id bigint,
+    city_id bigint,
+    epoch_day bigint not null,
+    total_distance bigint not null,
+    deliveries integer not null,
+    primary key (id),
+    constraint uk_driver_daily_rollup_driver_day unique (driver_id, epoch_day)
+);
+
+create index if not exists idx_driver_daily_rollup_city_day on driver_daily_rollup (city_id, epoch_day);
+
+create table if not exists driver_shift (
+    id bigint not null,
+    driver_id bigint,
+    day_of_week integer not null,
+    hours integer not null,
+    primary key (id),
+    foreign key (driver_id) references named_entity (id)
+);
+
+create table if not exists order_request_key (
+    request_key varchar(255) not null,
+    request_hash varchar(255),
+    delivery_id bigint,
+    created_at timestamp,
+    primary key (request_key),
+    foreign key (delivery_id) references delivery (id)
+);
+
+create index if not exists idx_order_request_key_created_at on order_request_key (created_at);
@@ -0,0 +1,115 @@
+package com.walt;
+
+import com.walt.cluster.CityNotOwnedException;
+import com.walt.cluster.CityOwnership;
+import com.walt.dao.CityRepository;
+import com.walt.dao.CustomerRepository;
+import com.walt.dao.DriverRepository;
+import com.walt.dao.RestaurantRepository;
+import com.walt.model.City;
+import com.walt.model.Customer;
+import com.walt.model.Driver;
+import com.walt.model.Restaurant;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.web.servlet.AutoConfigureMockMvc;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationContext;
+import org.springframework.test.web.servlet.MockMvc;
+
+import javax.annotation.Resource;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+
+import static org.junit.Assert.*;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
+import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.status;
+
+/**
+ * two nodes of a cluster on one database - the ownership bean of the context and a second one created next to it,
+ * each with its own node id. leases are renewed by hand only.
+ */
+@SpringBootTest(properties = {"walt.cluster.enabled=true", "walt.cluster.lease-ms=500",
+        "walt.cluster.renew-ms=3600000", "walt.cluster.node-url=http://localhost:1"})
+@AutoConfigureMockMvc
+public class CityOwnershipTest {
+
+    @Autowired
+    CityOwnership node1;
+
+    @Autowired
+    ApplicationContext context;
+
+    @Autowired
+    MockMvc mockMvc;
+
+    @Resource
+    CityRepository cityRepository;
+
+    @Resource
+    CustomerRepository customerRepository;
+
+    @Resource
+    DriverRepository driverRepository;
+
+    @Resource
+    RestaurantRepository restaurantRepository;
+
+    /**
+     * Test case - node 1 claims Tel-Aviv and node 2 asks for it, then node 1 stops renewing, its lease expires and
+     * node 2 asks again.
+     * Expected result - node 2 is sent to node 1 while the lease is live, then takes the city over and node 1
+     * doesn't own it anymore
+     */
+    @Test
+    public void testExpiredLeaseTakenOver() throws Exception
+    {
+        CityOwnership node2 = context.getAutowireCapableBeanFactory().createBean(CityOwnership.class);
+        assertNotEquals(node1.getNodeId(), node2.getNodeId());
+        City tlv = cityRepository.save(new City("Tel-Aviv"));
+
+        node1.checkOwner(tlv);
+        node1.checkOwner(tlv);
+        CityNotOwnedException notOwned = assertThrows(CityNotOwnedException.class, () -> node2.checkOwner(tlv));
+        assertEquals(node1.getNodeId(), notOwned.getOwnerNode());
+
+        Thread.sleep(700);
+        node2.checkOwner(tlv);
+        notOwned = assertThrows(CityNotOwnedException.class, () -> node1.checkOwner(tlv));
+        assertEquals(node2.getNodeId(), notOwned.getOwnerNode());
+
+        node1.renewLeases();
+        node2.renewLeases();
+        node2.checkOwner(tlv);
+        assertThrows(CityNotOwnedException.class, () -> node1.checkOwner(tlv));
+    }
+
+    /**
+     * Test case - node 2 owns Haifa and doesn't answer (nothing listens on its url), an order of Haifa is posted to
+     * node 1 before and after the lease of node 2 expires.
+     * Expected result - 503 while node 2 holds the lease, then node 1 takes the city over and places the order
+     */
+    @Test
+    public void testUnreachableOwner() throws Exception
+    {
+        CityOwnership node2 = context.getAutowireCapableBeanFactory().createBean(CityOwnership.class);
+        City haifa = cityRepository.save(new City("Haifa"));
+        driverRepository.save(new Driver("Noa", haifa));
+        customerRepository.save(new Customer("Chopin", haifa, "Frédéric François Chopin"));
+        restaurantRepository.save(new Restaurant("falafel", haifa, "falafel stand"));
+        node2.checkOwner(haifa);
+
+        String deliveryTime = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss.SSSXXX")
+                .format(new Date(System.currentTimeMillis() + 3600000));
+        mockMvc.perform(post("/orders").param("customer", "Chopin").param("restaurant", "falafel")
+                .param("deliveryTime", deliveryTime))
+                .andExpect(status().isServiceUnavailable());
+
+        Thread.sleep(700);
+        mockMvc.perform(post("/orders").param("customer", "Chopin").param("restaurant", "falafel")
+                .param("deliveryTime", deliveryTime))
+                .andExpect(status().isOk());
+        node1.checkOwner(haifa);
+    }
+}
@@ -0,0 +1,95 @@
+package com.walt;
+
+import com.walt.dao.*;
+import com.walt.dispatch.DispatchState;
+import com.walt.dispatch.DispatchStateService;
+import com.walt.model.*;
+import org.junit.jupiter.api.Test;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DriverManagerDataSource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.GregorianCalendar;
+
+import static org.junit.Assert.*;
+
+/**
+ * restarts with walt.dispatch.log.enabled - the dispatch state comes back from the last snapshot plus the tail of
+ * the log, and the deliveries the log is missing are read from the database.
+ */
+public class DispatchRestoreTest {
+
+    private static final String DB_URL = "jdbc:h2:mem:restore;DB_CLOSE_DELAY=-1";
+
+    /**
+     * Test case - a snapshot is written after 3 deliveries and 2 more are logged after it. the node stops, the
+     * second record of the log tail is cut in half and another node stores a delivery meanwhile.
+     * Expected result - the restart restores all the 6 deliveries and their hours are booked
+     */
+    @Test
+    public void testRestoreFromSnapshotAndLogTail() throws Exception
+    {
+        Path dir = Files.createTempDirectory("dispatch");
+        String[] args = {"--walt.dispatch.log.enabled=true", "--walt.dispatch.log.dir=" + dir,
+                "--walt.dispatch.snapshot-ms=3600000", "--spring.datasource.url=" + DB_URL,
+                "--spring.jpa.hibernate.ddl-auto=update"};
+        long maryId;
+        long patriciaId;
+        byte[] snapshot;
+        byte[] log;
+        try (ConfigurableApplicationContext context = start(args)) {
+            City tlv = context.getBean(CityRepository.class).save(new City("Tel-Aviv"));
+            DriverRepository driverRepository = context.getBean(DriverRepository.class);
+            Driver mary = driverRepository.save(new Driver("Mary", tlv));
+            Driver patricia = driverRepository.save(new Driver("Patricia", tlv));
+            Customer bach = context.getBean(CustomerRepository.class)
+                    .save(new Customer("Bach", tlv, "Sebastian Bach. Johann"));
+            Restaurant cafe = context.getBean(RestaurantRepository.class)
+                    .save(new Restaurant("cafe", tlv, "Coffee shop"));
+            maryId = mary.getId();
+            patriciaId = patricia.getId();
+
+            DeliveryRepository deliveryRepository = context.getBean(DeliveryRepository.class);
+            deliveryRepository.saveAll(Arrays.asList(new Delivery(mary, cafe, bach, at(10)),
+                    new Delivery(mary, cafe, bach, at(12)), new Delivery(patricia, cafe, bach, at(10))));
+            context.getBean(DispatchStateService.class).snapshot();
+            deliveryRepository.save(new Delivery(mary, cafe, bach, at(14)));
+            deliveryRepository.save(new Delivery(patricia, cafe, bach, at(14)));
+
+            snapshot = Files.readAllBytes(dir.resolve("dispatch.snapshot"));
+            log = Files.readAllBytes(dir.resolve("dispatch.log"));
+        }
+        //stopping wrote a snapshot of everything, the files are put back as they were before the stop
+        Files.write(dir.resolve("dispatch.snapshot"), snapshot);
+        Files.write(dir.resolve("dispatch.log"), Arrays.copyOf(log, 16 + 48 + 24));
+
+        JdbcTemplate otherNode = new JdbcTemplate(new DriverManagerDataSource(DB_URL, "sa", ""));
+        otherNode.update("insert into delivery (id, driver_id, delivery_time, end_time, distance) " +
+                "values (next value for hibernate_sequence, ?, ?, ?, 3)", patriciaId, at(16), at(17));
+
+        try (ConfigurableApplicationContext context = start(args)) {
+            DispatchState state = context.getBean(DispatchStateService.class).getState();
+            assertEquals(6, state.totalDeliveries());
+            assertEquals(3, state.getSchedule(maryId).getDeliveries());
+            assertEquals(3, state.getSchedule(patriciaId).getDeliveries());
+            assertFalse(state.getSchedule(maryId).isFree(at(14).getTime(), at(15).getTime()));
+            assertFalse(state.getSchedule(patriciaId).isFree(at(14).getTime(), at(15).getTime()));
+            assertFalse(state.getSchedule(patriciaId).isFree(at(16).getTime(), at(17).getTime()));
+            assertTrue(state.getSchedule(maryId).isFree(at(16).getTime(), at(17).getTime()));
+        }
+    }
+
+    private static ConfigurableApplicationContext start(final String[] args) {
+        return new SpringApplicationBuilder(WaltApplication.class).web(WebApplicationType.NONE).run(args);
+    }
+
+    private static Date at(final int hour) {
+        return new GregorianCalendar(2021, 7, 5, hour, 0).getTime();
+    }
+}
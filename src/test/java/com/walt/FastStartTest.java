@@ -0,0 +1,113 @@
+package com.walt;
+
+import com.walt.dao.*;
+import com.walt.dispatch.DispatchStateService;
+import com.walt.dispatch.DispatchWarmup;
+import com.walt.dispatch.OrderRequestStore;
+import com.walt.model.*;
+import com.walt.replica.ReplicaSync;
+import com.walt.report.LiveLeaderboard;
+import com.walt.report.RollupUpdater;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.availability.AvailabilityChangeEvent;
+import org.springframework.boot.availability.ReadinessState;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.context.ApplicationEvent;
+import org.springframework.context.ApplicationListener;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.test.context.ActiveProfiles;
+
+import javax.annotation.Resource;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * the fast-start profile - the pre-built schema instead of the one hibernate generates, lazy beans.
+ * a database of its own, so the schema isn't the one created by the other tests' contexts.
+ */
+@SpringBootTest(properties = "spring.datasource.url=" + FastStartTest.DB_URL)
+@ActiveProfiles("fast-start")
+public class FastStartTest {
+
+    static final String DB_URL = "jdbc:h2:mem:fast-start;DB_CLOSE_DELAY=-1;DB_CLOSE_ON_EXIT=false";
+
+    @Autowired
+    WaltService waltService;
+
+    @Resource
+    CityRepository cityRepository;
+
+    @Resource
+    CustomerRepository customerRepository;
+
+    @Resource
+    DriverRepository driverRepository;
+
+    @Resource
+    DeliveryRepository deliveryRepository;
+
+    @Resource
+    RestaurantRepository restaurantRepository;
+
+    /**
+     * Test case - an order with a request key is created and retried against the pre-built schema.
+     * Expected result - the key is stored with its request hash, the retry gets the same delivery
+     */
+    @Test
+    public void testKeyedOrder() throws Exception
+    {
+        City tlv = cityRepository.save(new City("Tel-Aviv"));
+        driverRepository.save(new Driver("Mary", tlv));
+        Customer customer = customerRepository.save(new Customer("Beethoven", tlv, "Ludwig van Beethoven"));
+        Restaurant restaurant = restaurantRepository.save(new Restaurant("cafe", tlv, "Coffee shop"));
+
+        Delivery first = waltService.createOrderAndAssignDriver("key-1", customer, restaurant,
+                new GregorianCalendar(2021, Calendar.AUGUST, 6,12,0).getTime());
+        Delivery retry = waltService.createOrderAndAssignDriver("key-1", customer, restaurant,
+                new GregorianCalendar(2021, Calendar.AUGUST, 6,12,0).getTime());
+        assertEquals(first.getId(), retry.getId());
+        assertEquals(1, deliveryRepository.count());
+    }
+
+    /**
+     * Test case - a node boots with the fast-start profile and the replica on a database that has a city with a
+     * driver.
+     * Expected result - by the time readiness turns to ACCEPTING_TRAFFIC the warm-up ran its orders and the
+     * beans excluded from lazy initialization exist
+     */
+    @Test
+    public void testWarmupBeforeReadiness()
+    {
+        City haifa = cityRepository.save(new City("Haifa"));
+        driverRepository.save(new Driver("Noa", haifa));
+
+        Map<String, Object> atReadiness = new HashMap<>();
+        ApplicationListener<ApplicationEvent> readiness = e -> {
+            if (e instanceof AvailabilityChangeEvent
+                    && ((AvailabilityChangeEvent<?>) e).getState() == ReadinessState.ACCEPTING_TRAFFIC) {
+                ConfigurableApplicationContext context = (ConfigurableApplicationContext) e.getSource();
+                atReadiness.put("orders", context.getBean(DispatchWarmup.class).getOrders());
+                for (Class<?> type : Arrays.asList(DispatchStateService.class, OrderRequestStore.class,
+                        RollupUpdater.class, ReplicaSync.class, LiveLeaderboard.class)) {
+                    String name = context.getBeanNamesForType(type)[0];
+                    atReadiness.put(type.getSimpleName(), context.getBeanFactory().containsSingleton(name));
+                }
+            }
+        };
+        try (ConfigurableApplicationContext context = new SpringApplicationBuilder(WaltApplication.class)
+                .web(WebApplicationType.NONE).profiles("fast-start").listeners(readiness)
+                .run("--spring.datasource.url=" + DB_URL, "--walt.warmup.orders-per-city=5",
+                        "--walt.replica.enabled=true")) {
+            assertEquals(5, atReadiness.get("orders"));
+            assertEquals(true, atReadiness.get("DispatchStateService"));
+            assertEquals(true, atReadiness.get("OrderRequestStore"));
+            assertEquals(true, atReadiness.get("RollupUpdater"));
+            assertEquals(true, atReadiness.get("ReplicaSync"));
+            assertEquals(true, atReadiness.get("LiveLeaderboard"));
+        }
+    }
+}
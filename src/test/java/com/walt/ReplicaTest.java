@@ -0,0 +1,149 @@
+package com.walt;
+
+import com.walt.dao.*;
+import com.walt.model.*;
+import com.walt.replica.ReplicaDataSources;
+import com.walt.replica.ReplicaSync;
+import com.walt.report.ReportPeriod;
+import org.assertj.core.util.Lists;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import javax.annotation.Resource;
+import java.util.GregorianCalendar;
+import java.util.List;
+
+import static org.junit.Assert.*;
+
+/**
+ * the rank reports with walt.replica.enabled - deliveries reach the replica and the reports are read from it.
+ */
+@SpringBootTest(properties = "walt.replica.enabled=true")
+public class ReplicaTest {
+
+    @Autowired
+    WaltService waltService;
+
+    @Autowired
+    ReplicaSync replicaSync;
+
+    @Autowired
+    ReplicaDataSources replicaDataSources;
+
+    @Resource
+    CityRepository cityRepository;
+
+    @Resource
+    CustomerRepository customerRepository;
+
+    @Resource
+    DriverRepository driverRepository;
+
+    @Resource
+    DeliveryRepository deliveryRepository;
+
+    @Resource
+    RestaurantRepository restaurantRepository;
+
+    /**
+     * Test case - two deliveries of Mary in Tel-Aviv are saved, and once they are in the replica the distance
+     * of one is changed in the replica only.
+     * Expected result - the rank report is read from the replica and shows the changed distance, a plain
+     * repository read still reads the primary
+     */
+    @Test
+    public void testReportReadsReplica() throws Exception
+    {
+        City tlv = cityRepository.save(new City("Tel-Aviv"));
+        Driver mary = driverRepository.save(new Driver("Mary", tlv));
+        Customer bach = customerRepository.save(new Customer("Bach", tlv, "Sebastian Bach. Johann"));
+        Restaurant cafe = restaurantRepository.save(new Restaurant("cafe", tlv, "Coffee shop"));
+
+        Delivery d1 = new Delivery(mary, cafe, bach, new GregorianCalendar(2021, 7, 5, 10, 0).getTime());
+        d1.setDistance(5);
+        Delivery d2 = new Delivery(mary, cafe, bach, new GregorianCalendar(2021, 7, 5, 12, 0).getTime());
+        d2.setDistance(7);
+        deliveryRepository.saveAll(Lists.newArrayList(d1, d2));
+
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!replicaSync.isCaughtUp() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(replicaSync.isCaughtUp());
+        assertEquals(0, replicaSync.getLagMillis());
+
+        new JdbcTemplate(replicaDataSources.getReplica())
+                .update("update delivery set distance = 20 where id = ?", d2.getId());
+        List<DriverDistance> report = waltService.getDriverRankReportByCity(tlv);
+        assertEquals(1, report.size());
+        assertEquals("Mary", report.get(0).getDriver().getName());
+        assertEquals(25L, report.get(0).getTotalDistance().longValue());
+
+        //read-only, but not a @ReplicaRead method - reads the primary
+        double primaryTotal = 0;
+        for (Object[] row : deliveryRepository.findAllDriverDistancesByCity(tlv.getId())) {
+            primaryTotal += (Double) row[1];
+        }
+        assertEquals(12.0, primaryTotal, 0);
+    }
+
+    /**
+     * Test case - two deliveries of Noa in Haifa on the same day reach the replica, then one is moved to the next
+     * day with a new distance and the other is removed.
+     * Expected result - the replica follows each change without a full copy: the moved delivery is copied, the
+     * removed one is gone, and the replica's rollups of both days are rebuilt
+     */
+    @Test
+    public void testChangedDeliveryReachesReplica() throws Exception
+    {
+        City haifa = cityRepository.save(new City("Haifa"));
+        Driver noa = driverRepository.save(new Driver("Noa", haifa));
+        Customer chopin = customerRepository.save(new Customer("Chopin", haifa, "Frédéric François Chopin"));
+        Restaurant meat = restaurantRepository.save(new Restaurant("meat", haifa, "All meat restaurant"));
+
+        Delivery d1 = new Delivery(noa, meat, chopin, new GregorianCalendar(2021, 7, 5, 10, 0).getTime());
+        d1.setDistance(5);
+        Delivery d2 = new Delivery(noa, meat, chopin, new GregorianCalendar(2021, 7, 5, 12, 0).getTime());
+        d2.setDistance(7);
+        deliveryRepository.saveAll(Lists.newArrayList(d1, d2));
+        awaitReplica();
+
+        JdbcTemplate replica = new JdbcTemplate(replicaDataSources.getReplica());
+        long day5 = ReportPeriod.epochDay(d1.getDeliveryTime().getTime());
+        assertEquals(12L, rollup(replica, noa, day5));
+
+        d2.setDeliveryTime(new GregorianCalendar(2021, 7, 6, 12, 0).getTime());
+        d2.setDistance(9);
+        deliveryRepository.save(d2);
+        awaitReplica();
+        assertEquals(9.0, replica.queryForObject("select distance from delivery where id = ?", Double.class,
+                d2.getId()), 0);
+        assertEquals(5L, rollup(replica, noa, day5));
+        assertEquals(9L, rollup(replica, noa, day5 + 1));
+
+        deliveryRepository.delete(d1);
+        awaitReplica();
+        assertEquals(0, replica.queryForList("select id from delivery where id = ?", d1.getId()).size());
+        assertEquals(0L, rollup(replica, noa, day5));
+        assertEquals(9L, rollup(replica, noa, day5 + 1));
+    }
+
+    private void awaitReplica() throws InterruptedException {
+        long deadline = System.currentTimeMillis() + 10000;
+        while (!replicaSync.isCaughtUp() && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+        }
+        assertTrue(replicaSync.isCaughtUp());
+    }
+
+    /**
+     * @return total distance of the driver's rollup row of the day in the replica, 0 if there is none.
+     */
+    private static long rollup(JdbcTemplate replica, Driver driver, long epochDay) {
+        List<Long> totals = replica.queryForList("select total_distance from driver_daily_rollup"
+                + " where driver_id = ? and epoch_day = ?", Long.class, driver.getId(), epochDay);
+        return totals.isEmpty() ? 0 : totals.get(0);
+    }
+}
@@ -1,7 +1,19 @@
 package com.walt;
 
 import com.walt.dao.*;
+import com.walt.dispatch.CityRoster;
+import com.walt.dispatch.DispatchState;
+import com.walt.dispatch.DispatchStateService;
+import com.walt.dispatch.RequestKeyReusedException;
+import com.walt.io.DeliveryBulkService;
 import com.walt.model.*;
+import com.walt.report.LiveLeaderboard;
+import com.walt.report.RankChange;
+import com.walt.report.ReportPeriod;
+import com.walt.report.RollupUpdater;
+import com.walt.simulation.CapacitySimulator;
+import com.walt.simulation.Demand;
+import com.walt.simulation.SimulationResult;
 import org.assertj.core.util.Lists;
 import org.junit.Assert;
 import org.junit.jupiter.api.BeforeEach;
@@ -13,10 +25,17 @@ import org.springframework.context.annotation.Bean;
 import org.springframework.test.annotation.DirtiesContext;
 
 import javax.annotation.Resource;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.DayOfWeek;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Calendar;
 import java.util.Date;
 import java.util.GregorianCalendar;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import static org.junit.Assert.*;
 
@@ -51,6 +70,24 @@ public class WaltTest {
     @Resource
     RestaurantRepository restaurantRepository;
 
+    @Resource
+    DriverShiftRepository driverShiftRepository;
+
+    @Autowired
+    LiveLeaderboard liveLeaderboard;
+
+    @Autowired
+    DeliveryBulkService deliveryBulkService;
+
+    @Autowired
+    CapacitySimulator capacitySimulator;
+
+    @Autowired
+    DispatchStateService dispatchStateService;
+
+    @Autowired
+    RollupUpdater rollupUpdater;
+
     @BeforeEach()
     public void prepareData(){
         City jerusalem = new City("Jerusalem");
@@ -414,4 +451,739 @@ public class WaltTest {
         List<DriverDistance> dd = waltService.getDriverRankReport();
         assertTrue(dd.get(0).getTotalDistance() > Long.valueOf(0));
     }
+
+    /**
+     * checks daily, weekly and monthly rank reports
+     */
+    @Test
+    public void test9()
+    {
+        Delivery d1 = new Delivery(
+                driverRepository.findByName("Patricia"),//TLV
+                restaurantRepository.findByName("cafe"),//TLV
+                customerRepository.findByName("Beethoven"),//TLV
+                new GregorianCalendar(2021, Calendar.AUGUST, 6,10,0).getTime() //Friday
+        );
+        d1.setDistance(10);
+
+        Delivery d2 = new Delivery(
+                driverRepository.findByName("Patricia"),//TLV
+                restaurantRepository.findByName("cafe"),//TLV
+                customerRepository.findByName("Beethoven"),//TLV
+                new GregorianCalendar(2021, Calendar.AUGUST, 20,10,0).getTime()
+        );
+        d2.setDistance(7);
+
+        Delivery d3 = new Delivery(
+                driverRepository.findByName("Mary"),//TLV
+                restaurantRepository.findByName("vegan"),//TLV
+                customerRepository.findByName("Bach"),//TLV
+                new GregorianCalendar(2021, Calendar.JULY, 30,12,0).getTime() //previous week and month
+        );
+        d3.setDistance(20);
+
+        Delivery d4 = new Delivery(
+                driverRepository.findByName("Robert"),//JSM
+                restaurantRepository.findByName("meat"),//JSM
+                customerRepository.findByName("Mozart"),//JSM
+                new GregorianCalendar(2021, Calendar.AUGUST, 4,15,0).getTime()
+        );
+        d4.setDistance(4);
+        deliveryRepository.saveAll(Lists.newArrayList(d1,d2,d3,d4));
+
+        Date day = new GregorianCalendar(2021, Calendar.AUGUST, 6,18,0).getTime();
+        City tlv = cityRepository.findByName("Tel-Aviv");
+
+        List<DriverDistance> daily = waltService.getDriverRankReportByCity(tlv, ReportPeriod.DAY, day);
+        assertEquals(driverRepository.findByName("Patricia").getId(),daily.get(0).getDriver().getId());
+        assertTrue(daily.get(0).getTotalDistance() == Long.valueOf(10));
+        assertTrue(daily.get(1).getTotalDistance() == Long.valueOf(0));
+
+        List<DriverDistance> weekly = waltService.getDriverRankReport(ReportPeriod.WEEK, day);
+        assertEquals(driverRepository.findByName("Patricia").getId(),weekly.get(0).getDriver().getId());
+        assertTrue(weekly.get(0).getTotalDistance() == Long.valueOf(10));
+        assertEquals(driverRepository.findByName("Robert").getId(),weekly.get(1).getDriver().getId());
+        assertTrue(weekly.get(1).getTotalDistance() == Long.valueOf(4));
+        assertTrue(weekly.get(2).getTotalDistance() == Long.valueOf(0));
+
+        List<DriverDistance> monthly = waltService.getDriverRankReportByCity(tlv, ReportPeriod.MONTH, day);
+        assertEquals(driverRepository.findByName("Patricia").getId(),monthly.get(0).getDriver().getId());
+        assertTrue(monthly.get(0).getTotalDistance() == Long.valueOf(17));
+        assertTrue(monthly.get(1).getTotalDistance() == Long.valueOf(0));
+    }
+
+    /**
+     * checks rank reports of all the cities at once
+     */
+    @Test
+    public void test10()
+    {
+        Delivery d1 = new Delivery(
+                driverRepository.findByName("Patricia"),//TLV
+                restaurantRepository.findByName("cafe"),//TLV
+                customerRepository.findByName("Beethoven"),//TLV
+                new Date()
+        );
+        d1.setDistance(10);
+
+        Delivery d2 = new Delivery(
+                driverRepository.findByName("Mary"),//TLV
+                restaurantRepository.findByName("vegan"),//TLV
+                customerRepository.findByName("Bach"),//TLV
+                new Date()
+        );
+        d2.setDistance(12);
+
+        Delivery d3 = new Delivery(
+                driverRepository.findByName("Robert"),//JSM
+                restaurantRepository.findByName("meat"),//JSM
+                customerRepository.findByName("Mozart"),//JSM
+                new Date()
+        );
+        d3.setDistance(5);
+        deliveryRepository.saveAll(Lists.newArrayList(d1,d2,d3));
+
+        Map<Long, List<DriverDistance>> reports = waltService.getDriverRankReportForAllCities();
+
+        List<DriverDistance> tlv = reports.get(cityRepository.findByName("Tel-Aviv").getId());
+        assertEquals(3, tlv.size());
+        assertEquals(driverRepository.findByName("Mary").getId(),tlv.get(0).getDriver().getId());
+        assertTrue(tlv.get(0).getTotalDistance() == Long.valueOf(12));
+        assertEquals(driverRepository.findByName("Patricia").getId(),tlv.get(1).getDriver().getId());
+        assertTrue(tlv.get(1).getTotalDistance() == Long.valueOf(10));
+
+        List<DriverDistance> jerusalem = reports.get(cityRepository.findByName("Jerusalem").getId());
+        assertEquals(3, jerusalem.size());
+        assertEquals(driverRepository.findByName("Robert").getId(),jerusalem.get(0).getDriver().getId());
+        assertTrue(jerusalem.get(0).getTotalDistance() == Long.valueOf(5));
+
+        assertEquals(waltService.getDriverRankReportByCity(cityRepository.findByName("Haifa")).size(),
+                reports.get(cityRepository.findByName("Haifa").getId()).size());
+    }
+
+    /**
+     * checks a cached rank report is recomputed once a delivery is recorded
+     */
+    @Test
+    public void test11()
+    {
+        Delivery d1 = new Delivery(
+                driverRepository.findByName("Patricia"),//TLV
+                restaurantRepository.findByName("cafe"),//TLV
+                customerRepository.findByName("Beethoven"),//TLV
+                new Date()
+        );
+        d1.setDistance(10);
+        deliveryRepository.save(d1);
+
+        City tlv = cityRepository.findByName("Tel-Aviv");
+        List<DriverDistance> first = waltService.getDriverRankReportByCity(tlv);
+        assertSame(first, waltService.getDriverRankReportByCity(tlv));
+        assertTrue(first.get(0).getTotalDistance() == Long.valueOf(10));
+
+        Delivery d2 = new Delivery(
+                driverRepository.findByName("Patricia"),//TLV
+                restaurantRepository.findByName("cafe"),//TLV
+                customerRepository.findByName("Beethoven"),//TLV
+                new Date()
+        );
+        d2.setDistance(10);
+        deliveryRepository.save(d2);
+
+        List<DriverDistance> second = waltService.getDriverRankReportByCity(tlv);
+        assertNotSame(first, second);
+        assertTrue(second.get(0).getTotalDistance() == Long.valueOf(20));
+        assertTrue(waltService.getDriverRankReport().get(0).getTotalDistance() == Long.valueOf(20));
+    }
+
+    /**
+     * checks the live leaderboard moves a driver to its new position when a delivery is recorded
+     */
+    @Test
+    public void test12()
+    {
+        Delivery d1 = new Delivery(
+                driverRepository.findByName("Patricia"),//TLV
+                restaurantRepository.findByName("cafe"),//TLV
+                customerRepository.findByName("Beethoven"),//TLV
+                new Date()
+        );
+        d1.setDistance(10);
+        deliveryRepository.save(d1);
+
+        List<RankChange> changes = new ArrayList<>();
+        List<RankChange> board = liveLeaderboard.subscribe(cityRepository.findByName("Tel-Aviv").getId(), changes::add);
+        assertEquals(3, board.size());
+        assertEquals("Patricia", board.get(0).getDriverName());
+        assertEquals(1, board.get(0).getPosition());
+
+        Delivery d2 = new Delivery(
+                driverRepository.findByName("Mary"),//TLV
+                restaurantRepository.findByName("vegan"),//TLV
+                customerRepository.findByName("Bach"),//TLV
+                new Date()
+        );
+        d2.setDistance(15);
+        deliveryRepository.save(d2);
+
+        assertEquals(1, changes.size());
+        assertEquals("Mary", changes.get(0).getDriverName());
+        assertEquals(15, changes.get(0).getTotalDistance());
+        assertEquals(1, changes.get(0).getPosition());
+    }
+
+    /**
+     * exports the deliveries to a csv file and imports the file back
+     * Expected result - every delivery is stored twice and the reports follow
+     * @throws Exception
+     */
+    @Test
+    public void test13() throws Exception
+    {
+        Delivery d1 = new Delivery(
+                driverRepository.findByName("Patricia"),//TLV
+                restaurantRepository.findByName("cafe"),//TLV
+                customerRepository.findByName("Beethoven"),//TLV
+                new GregorianCalendar(2021, Calendar.AUGUST, 6,11,0).getTime()
+        );
+        d1.setDistance(10);
+
+        Delivery d2 = new Delivery(
+                driverRepository.findByName("Robert"),//JSM
+                restaurantRepository.findByName("meat"),//JSM
+                customerRepository.findByName("Mozart"),//JSM
+                new GregorianCalendar(2021, Calendar.AUGUST, 6,12,0).getTime()
+        );
+        d2.setDistance(7);
+        deliveryRepository.saveAll(Lists.newArrayList(d1,d2));
+
+        Path file = Files.createTempFile("deliveries", ".csv");
+        try {
+            assertEquals(2, deliveryBulkService.exportCsv(file));
+            assertEquals(2, deliveryBulkService.importCsv(file));
+        } finally {
+            Files.delete(file);
+        }
+
+        assertEquals(4, deliveryRepository.count());
+        List<DriverDistance> dd = waltService.getDriverRankReport();
+        assertEquals(driverRepository.findByName("Patricia").getId(),dd.get(0).getDriver().getId());
+        assertTrue(dd.get(0).getTotalDistance() == Long.valueOf(20));
+        assertEquals(driverRepository.findByName("Robert").getId(),dd.get(1).getDriver().getId());
+        assertTrue(dd.get(1).getTotalDistance() == Long.valueOf(14));
+
+        List<DriverDistance> daily = waltService.getDriverRankReport(ReportPeriod.DAY,
+                new GregorianCalendar(2021, Calendar.AUGUST, 6,18,0).getTime());
+        assertTrue(daily.get(0).getTotalDistance() == Long.valueOf(20));
+    }
+
+    /**
+     * Test case - Mary works on Fridays from 8:00 to 16:00, Patricia and Daniel have a delivery at 20:00-21:00.
+     * Expected result - nobody is available at 20:45, Mary isn't sent at 21:00 and is the least busy at 12:00
+     * @throws Exception
+     */
+    @Test
+    public void test14() throws Exception
+    {
+        driverShiftRepository.save(new DriverShift(driverRepository.findByName("Mary"),
+                DayOfWeek.FRIDAY.getValue(), DriverShift.hours(8, 16)));
+
+        Delivery d1 = new Delivery(
+                driverRepository.findByName("Patricia"),//TLV
+                restaurantRepository.findByName("cafe"),//TLV
+                customerRepository.findByName("Beethoven"),//TLV
+                new GregorianCalendar(2021, Calendar.AUGUST, 6,20,0).getTime()
+        );
+        d1.setDistance(10);
+
+        Delivery d2 = new Delivery(
+                driverRepository.findByName("Daniel"),//TLV
+                restaurantRepository.findByName("cafe"),//TLV
+                customerRepository.findByName("Rachmaninoff"),//TLV
+                new GregorianCalendar(2021, Calendar.AUGUST, 6,20,30).getTime()
+        );
+        d2.setDistance(4);
+        deliveryRepository.saveAll(Lists.newArrayList(d1,d2));
+
+        Customer c1 = customerRepository.findByName("Bach"); //TLV
+        Restaurant r1 = restaurantRepository.findByName("vegan"); //TLV
+        Throwable ex = assertThrows(Exception.class, () -> waltService.createOrderAndAssignDriver(
+                c1, r1, new GregorianCalendar(2021, Calendar.AUGUST, 6,20,45).getTime()));
+        Assert.assertEquals("There isn't available driver at this moment.", ex.getMessage());
+
+        Delivery late = waltService.createOrderAndAssignDriver(
+                c1, r1, new GregorianCalendar(2021, Calendar.AUGUST, 6,21,0).getTime());
+        assertNotEquals("Mary", late.getDriver().getName());
+
+        Delivery noon = waltService.createOrderAndAssignDriver(
+                c1, r1, new GregorianCalendar(2021, Calendar.AUGUST, 6,12,0).getTime());
+        assertEquals("Mary", noon.getDriver().getName());
+    }
+
+    /**
+     * Test case - Patricia's 20 Km delivery at 10:00 lasts until 11:30, Daniel's short one ends at 10:20 and
+     * Mary starts another one at 11:00.
+     * Expected result - Daniel assigned to an order at 11:10, ending by the duration of its distance
+     * @throws Exception
+     */
+    @Test
+    public void test15() throws Exception
+    {
+        Delivery d1 = new Delivery(
+                driverRepository.findByName("Patricia"),//TLV
+                restaurantRepository.findByName("cafe"),//TLV
+                customerRepository.findByName("Beethoven"),//TLV
+                new GregorianCalendar(2021, Calendar.AUGUST, 6,10,0).getTime()
+        );
+        d1.setDistance(20);
+
+        Delivery d2 = new Delivery(
+                driverRepository.findByName("Daniel"),//TLV
+                restaurantRepository.findByName("cafe"),//TLV
+                customerRepository.findByName("Rachmaninoff"),//TLV
+                new GregorianCalendar(2021, Calendar.AUGUST, 6,10,0).getTime()
+        );
+        d2.setDistance(0);
+
+        Delivery d3 = new Delivery(
+                driverRepository.findByName("Mary"),//TLV
+                restaurantRepository.findByName("cafe"),//TLV
+                customerRepository.findByName("Rachmaninoff"),//TLV
+                new GregorianCalendar(2021, Calendar.AUGUST, 6,11,0).getTime()
+        );
+        d3.setDistance(0);
+        deliveryRepository.saveAll(Lists.newArrayList(d1,d2,d3));
+        assertEquals(new GregorianCalendar(2021, Calendar.AUGUST, 6,11,30).getTime(),
+                deliveryRepository.findById(d1.getId()).get().getEndTime());
+
+        Customer c1 = customerRepository.findByName("Bach"); //TLV
+        Restaurant r1 = restaurantRepository.findByName("vegan"); //TLV
+        Date time = new GregorianCalendar(2021, Calendar.AUGUST, 6,11,10).getTime();
+        Delivery newDel = waltService.createOrderAndAssignDriver(c1, r1, time);
+
+        assertEquals("Daniel", newDel.getDriver().getName());
+        assertEquals(time.getTime() + Delivery.durationOf(newDel.getDistance()), newDel.getEndTime().getTime());
+    }
+
+    /**
+     * Test case - an order is sent twice with the same request key, then once with another key.
+     * Expected result - the retry gets the first delivery and nothing new is stored, the other key gets a new one
+     * @throws Exception
+     */
+    @Test
+    public void test16() throws Exception
+    {
+        Customer c1 = customerRepository.findByName("Bach"); //TLV
+        Restaurant r1 = restaurantRepository.findByName("vegan"); //TLV
+        Date time = new GregorianCalendar(2021, Calendar.AUGUST, 6,11,0).getTime();
+
+        Delivery first = waltService.createOrderAndAssignDriver("order-1", c1, r1, time);
+        Delivery retry = waltService.createOrderAndAssignDriver("order-1", c1, r1, time);
+        assertEquals(first.getId(), retry.getId());
+        assertEquals(first.getDriver().getId(), retry.getDriver().getId());
+        assertEquals(1, deliveryRepository.count());
+
+        Delivery other = waltService.createOrderAndAssignDriver("order-2", c1, r1, time);
+        assertNotEquals(first.getId(), other.getId());
+        assertNotEquals(first.getDriver().getId(), other.getDriver().getId());
+        assertEquals(2, deliveryRepository.count());
+    }
+
+    /**
+     * Test case - the day before Patricia did three 20 Km deliveries and Daniel four 0 Km ones, Mary is busy.
+     * Expected result - Daniel assigned, fewer Km outweigh more deliveries
+     * @throws Exception
+     */
+    @Test
+    public void test17() throws Exception
+    {
+        List<Delivery> deliveries = new ArrayList<>();
+        for (int hour : new int[]{9, 11, 13}) {
+            Delivery d = new Delivery(
+                    driverRepository.findByName("Patricia"),//TLV
+                    restaurantRepository.findByName("cafe"),//TLV
+                    customerRepository.findByName("Beethoven"),//TLV
+                    new GregorianCalendar(2021, Calendar.AUGUST, 5,hour,0).getTime()
+            );
+            d.setDistance(20);
+            deliveries.add(d);
+        }
+        for (int hour : new int[]{9, 10, 11, 12}) {
+            Delivery d = new Delivery(
+                    driverRepository.findByName("Daniel"),//TLV
+                    restaurantRepository.findByName("cafe"),//TLV
+                    customerRepository.findByName("Rachmaninoff"),//TLV
+                    new GregorianCalendar(2021, Calendar.AUGUST, 5,hour,0).getTime()
+            );
+            d.setDistance(0);
+            deliveries.add(d);
+        }
+        Delivery busy = new Delivery(
+                driverRepository.findByName("Mary"),//TLV
+                restaurantRepository.findByName("cafe"),//TLV
+                customerRepository.findByName("Rachmaninoff"),//TLV
+                new GregorianCalendar(2021, Calendar.AUGUST, 6,12,0).getTime()
+        );
+        busy.setDistance(0);
+        deliveries.add(busy);
+        deliveryRepository.saveAll(deliveries);
+
+        Customer c1 = customerRepository.findByName("Bach"); //TLV
+        Restaurant r1 = restaurantRepository.findByName("vegan"); //TLV
+        Delivery newDel = waltService.createOrderAndAssignDriver(
+                c1, r1, new GregorianCalendar(2021, Calendar.AUGUST, 6,12,0).getTime());
+
+        assertEquals("Daniel", newDel.getDriver().getName());
+    }
+
+    /**
+     * Test case - a day of 4 orders per hour is simulated with 1 and with 8 drivers.
+     * Expected result - a single driver rejects more orders and is busier than each of the 8
+     */
+    @Test
+    public void test18()
+    {
+        Demand demand = Demand.generated(new GregorianCalendar(2021, Calendar.AUGUST, 6,0,0).getTimeInMillis(),
+                24, 4, 1);
+        List<SimulationResult> results = capacitySimulator.simulate(demand, new int[]{1, 8});
+
+        assertEquals(1, results.get(0).getFleetSize());
+        assertEquals(8, results.get(1).getFleetSize());
+        assertEquals(demand.size(), results.get(0).getOrders());
+        assertTrue(results.get(0).getRejected() > results.get(1).getRejected());
+        assertTrue(results.get(0).getUtilization() > results.get(1).getUtilization());
+        assertTrue(results.get(0).getUtilization() <= 1);
+    }
+
+    /**
+     * Test case - Patricia and Mary have deliveries at 12:00, the allocation free roster is asked for a driver
+     * at 12:10 and, once Daniel is booked too, again.
+     * Expected result - Daniel at first, nobody afterwards
+     */
+    @Test
+    public void test19()
+    {
+        Long tlv = cityRepository.findByName("Tel-Aviv").getId();
+        List<Delivery> deliveries = new ArrayList<>();
+        for (String name : new String[]{"Patricia", "Mary"}) {
+            Delivery d = new Delivery(
+                    driverRepository.findByName(name),//TLV
+                    restaurantRepository.findByName("cafe"),//TLV
+                    customerRepository.findByName("Beethoven"),//TLV
+                    new GregorianCalendar(2021, Calendar.AUGUST, 6,12,0).getTime()
+            );
+            d.setDistance(10);
+            deliveries.add(d);
+        }
+        deliveryRepository.saveAll(deliveries);
+        assertTrue(dispatchStateService.hasRoster(tlv));
+
+        long start = new GregorianCalendar(2021, Calendar.AUGUST, 6,12,10).getTimeInMillis();
+        long end = start + Delivery.durationOf(5);
+        Driver driver = dispatchStateService.selectDriver(tlv, start, end, false);
+        assertNotNull(driver);
+        assertEquals("Daniel", driver.getName());
+
+        Delivery daniel = new Delivery(
+                driverRepository.findByName("Daniel"),//TLV
+                restaurantRepository.findByName("cafe"),//TLV
+                customerRepository.findByName("Rachmaninoff"),//TLV
+                new GregorianCalendar(2021, Calendar.AUGUST, 6,12,0).getTime()
+        );
+        daniel.setDistance(10);
+        deliveryRepository.save(daniel);
+        assertNull(dispatchStateService.selectDriver(tlv, start, end, false));
+    }
+
+    /**
+     * Test case - all the Tel-Aviv drivers have deliveries at 12:00, and Mary another one in the year 2100
+     * that moves the booked hours far ahead.
+     * Expected result - an order at 12:10 still finds nobody free, the old hours are checked on the schedules
+     */
+    @Test
+    public void test20()
+    {
+        List<Delivery> deliveries = new ArrayList<>();
+        for (String name : new String[]{"Patricia", "Mary", "Daniel"}) {
+            Delivery d = new Delivery(
+                    driverRepository.findByName(name),//TLV
+                    restaurantRepository.findByName("cafe"),//TLV
+                    customerRepository.findByName("Beethoven"),//TLV
+                    new GregorianCalendar(2021, Calendar.AUGUST, 6,12,0).getTime()
+            );
+            d.setDistance(10);
+            deliveries.add(d);
+        }
+        Delivery future = new Delivery(
+                driverRepository.findByName("Mary"),//TLV
+                restaurantRepository.findByName("cafe"),//TLV
+                customerRepository.findByName("Beethoven"),//TLV
+                new GregorianCalendar(2100, Calendar.JANUARY, 1,12,0).getTime()
+        );
+        future.setDistance(10);
+        deliveries.add(future);
+        deliveryRepository.saveAll(deliveries);
+
+        Customer c1 = customerRepository.findByName("Bach"); //TLV
+        Restaurant r1 = restaurantRepository.findByName("vegan"); //TLV
+        Throwable ex = assertThrows(Exception.class, () -> waltService.createOrderAndAssignDriver(
+                c1, r1, new GregorianCalendar(2021, Calendar.AUGUST, 6,12,10).getTime()));
+        Assert.assertEquals("There isn't available driver at this moment.", ex.getMessage());
+    }
+
+    /**
+     * Test case - the Tel-Aviv rank report is cached, then the distance of a delivery is updated.
+     * Expected result - the report shows the updated distance
+     */
+    @Test
+    public void test21()
+    {
+        Delivery d = new Delivery(
+                driverRepository.findByName("Mary"),//TLV
+                restaurantRepository.findByName("cafe"),//TLV
+                customerRepository.findByName("Beethoven"),//TLV
+                new GregorianCalendar(2021, Calendar.AUGUST, 6,12,0).getTime()
+        );
+        d.setDistance(10);
+        d = deliveryRepository.save(d);
+        City tlv = cityRepository.findByName("Tel-Aviv");
+        assertEquals(Long.valueOf(10), waltService.getDriverRankReportByCity(tlv).get(0).getTotalDistance());
+
+        d.setDistance(15);
+        deliveryRepository.save(d);
+        assertEquals(Long.valueOf(15), waltService.getDriverRankReportByCity(tlv).get(0).getTotalDistance());
+    }
+
+    /**
+     * Test case - Jennifer has a delivery at 12:00 in Haifa and moves to Tel-Aviv, where all the drivers have
+     * deliveries at 12:00 too.
+     * Expected result - an order in Tel-Aviv at 12:10 finds nobody free, Jennifer's delivery moved with her
+     */
+    @Test
+    public void test22()
+    {
+        List<Delivery> deliveries = new ArrayList<>();
+        for (String name : new String[]{"Jennifer", "Mary", "Patricia", "Daniel"}) {
+            Delivery d = new Delivery(
+                    driverRepository.findByName(name),
+                    restaurantRepository.findByName("cafe"),
+                    customerRepository.findByName("Beethoven"),
+                    new GregorianCalendar(2021, Calendar.AUGUST, 6,12,0).getTime()
+            );
+            d.setDistance(10);
+            deliveries.add(d);
+        }
+        deliveryRepository.saveAll(deliveries);
+
+        Driver jennifer = driverRepository.findByName("Jennifer");
+        jennifer.setCity(cityRepository.findByName("Tel-Aviv"));
+        driverRepository.save(jennifer);
+
+        Customer c1 = customerRepository.findByName("Beethoven"); //TLV
+        Restaurant r1 = restaurantRepository.findByName("vegan"); //TLV
+        Throwable ex = assertThrows(Exception.class, () -> waltService.createOrderAndAssignDriver(
+                c1, r1, new GregorianCalendar(2021, Calendar.AUGUST, 6,12,10).getTime()));
+        Assert.assertEquals("There isn't available driver at this moment.", ex.getMessage());
+    }
+
+    /**
+     * Test case - Patricia's delivery of 10 Km is updated to 15 Km, which isn't added to the rollups, then the
+     * rollups are reconciled.
+     * Expected result - only Patricia's rollups are recomputed and the daily report shows 15
+     */
+    @Test
+    public void test23()
+    {
+        Delivery d = new Delivery(
+                driverRepository.findByName("Patricia"),//TLV
+                restaurantRepository.findByName("cafe"),//TLV
+                customerRepository.findByName("Beethoven"),//TLV
+                new GregorianCalendar(2021, Calendar.AUGUST, 6,12,0).getTime()
+        );
+        d.setDistance(10);
+        deliveryRepository.save(d);
+        Date day = new GregorianCalendar(2021, Calendar.AUGUST, 6,18,0).getTime();
+        City tlv = cityRepository.findByName("Tel-Aviv");
+        assertEquals(Long.valueOf(10), waltService.getDriverRankReportByCity(tlv, ReportPeriod.DAY, day)
+                .get(0).getTotalDistance());
+        assertEquals(0, rollupUpdater.reconcile());
+
+        d.setDistance(15);
+        deliveryRepository.save(d);
+        assertEquals(1, rollupUpdater.reconcile());
+        assertEquals(Long.valueOf(15), waltService.getDriverRankReportByCity(tlv, ReportPeriod.DAY, day)
+                .get(0).getTotalDistance());
+    }
+
+    /**
+     * Test case - an order is sent twice with the same request key, then the key is sent with another delivery
+     * time.
+     * Expected result - the retry gets the same delivery, the other delivery time is rejected
+     */
+    @Test
+    public void test24() throws Exception
+    {
+        Customer c1 = customerRepository.findByName("Beethoven"); //TLV
+        Restaurant r1 = restaurantRepository.findByName("cafe"); //TLV
+        Date time = new GregorianCalendar(2021, Calendar.AUGUST, 6,12,0).getTime();
+        Delivery first = waltService.createOrderAndAssignDriver("key-1", c1, r1, time);
+        Delivery retry = waltService.createOrderAndAssignDriver("key-1", c1, r1, time);
+        assertEquals(first.getId(), retry.getId());
+        assertEquals(1, deliveryRepository.count());
+
+        Date later = new GregorianCalendar(2021, Calendar.AUGUST, 6,14,0).getTime();
+        Throwable ex = assertThrows(RequestKeyReusedException.class,
+                () -> waltService.createOrderAndAssignDriver("key-1", c1, r1, later));
+        Assert.assertEquals("request key key-1 was already used for another order!", ex.getMessage());
+        assertEquals(1, deliveryRepository.count());
+    }
+
+    /**
+     * Test case - a delivery without a time is exported, then a file with a malformed distance is imported.
+     * Expected result - the export writes an empty time, the import fails with the line of the distance
+     * @throws Exception
+     */
+    @Test
+    public void test25() throws Exception
+    {
+        Delivery d = new Delivery(
+                driverRepository.findByName("Patricia"),//TLV
+                restaurantRepository.findByName("cafe"),//TLV
+                customerRepository.findByName("Beethoven"),//TLV
+                null
+        );
+        d.setDistance(10);
+        deliveryRepository.save(d);
+
+        Path file = Files.createTempFile("deliveries", ".csv");
+        try {
+            assertEquals(1, deliveryBulkService.exportCsv(file));
+            assertEquals("Patricia,cafe,Beethoven,,10.0,", Files.readAllLines(file).get(1));
+
+            Files.write(file, Arrays.asList("driver,restaurant,customer,deliveryTime,distance",
+                    "Patricia,cafe,Beethoven,2021-08-06T12:00:00Z,10",
+                    "Patricia,cafe,Beethoven,2021-08-06T14:00:00Z,ten"));
+            Throwable ex = assertThrows(Exception.class, () -> deliveryBulkService.importCsv(file));
+            Assert.assertEquals("line 3: distance 'ten' isn't a number!", ex.getMessage());
+        } finally {
+            Files.delete(file);
+        }
+        assertEquals(1, deliveryRepository.count());
+    }
+
+    /**
+     * Test case - driver 1 has 5 old deliveries and driver 2 has one, all of them pruned, then the roster of the
+     * city is built.
+     * Expected result - balancing by count still sees the deliveries and picks driver 2
+     */
+    @Test
+    public void test26()
+    {
+        DispatchState state = new DispatchState();
+        long day = new GregorianCalendar(2021, Calendar.AUGUST, 1,12,0).getTimeInMillis();
+        for (int i = 0; i < 5; i++) {
+            state.record(1L, 7L, day + i * 3600000L, day + i * 3600000L + 1800000L, 10);
+        }
+        state.record(2L, 7L, day, day + 1800000L, 10);
+        assertEquals(6, state.prune(day + 10 * 3600000L));
+
+        CityRoster roster = state.refreshRoster(7L, Arrays.asList(1L, 2L), new HashMap<>());
+        long start = day + 24 * 3600000L;
+        int index = state.selectDriver(roster, start, start + 1800000L, true);
+        assertEquals(2L, roster.driverAt(index));
+    }
+
+    /**
+     * Test case - all the drivers of Tel-Aviv have a delivery at 12:00, then Patricia's delivery is removed and
+     * an order is placed at 12:10.
+     * Expected result - Patricia's hour is free again and she gets the order, as her only delivery
+     */
+    @Test
+    public void test27() throws Exception
+    {
+        List<Delivery> deliveries = new ArrayList<>();
+        for (String name : new String[]{"Mary", "Patricia", "Daniel"}) {
+            Delivery d = new Delivery(
+                    driverRepository.findByName(name),
+                    restaurantRepository.findByName("cafe"),
+                    customerRepository.findByName("Beethoven"),
+                    new GregorianCalendar(2021, Calendar.AUGUST, 6,12,0).getTime()
+            );
+            d.setDistance(10);
+            deliveries.add(d);
+        }
+        deliveryRepository.saveAll(deliveries);
+        deliveryRepository.delete(deliveries.get(1));
+
+        Driver patricia = driverRepository.findByName("Patricia");
+        Delivery delivery = waltService.createOrderAndAssignDriver(customerRepository.findByName("Beethoven"),
+                restaurantRepository.findByName("vegan"), new GregorianCalendar(2021, Calendar.AUGUST, 6,12,10).getTime());
+        assertEquals(patricia.getId(), delivery.getDriver().getId());
+        deliveryRepository.save(delivery);
+        assertEquals(1, dispatchStateService.getState().getSchedule(patricia.getId()).getDeliveries());
+    }
+
+    /**
+     * Test case - a client watches Tel-Aviv, then Mary moves to Haifa. a board of a city that doesn't exist is
+     * asked for.
+     * Expected result - Mary leaves the board of Tel-Aviv with position 0 and shows on the board of Haifa, the
+     * unknown city has no board
+     */
+    @Test
+    public void test28()
+    {
+        long tlv = cityRepository.findByName("Tel-Aviv").getId();
+        long haifa = cityRepository.findByName("Haifa").getId();
+        List<RankChange> changes = new ArrayList<>();
+        assertEquals(3, liveLeaderboard.subscribe(tlv, changes::add).size());
+        assertEquals(3, liveLeaderboard.snapshot(haifa).size());
+
+        Driver mary = driverRepository.findByName("Mary");
+        mary.setCity(cityRepository.findByName("Haifa"));
+        driverRepository.save(mary);
+
+        assertEquals(1, changes.size());
+        assertEquals("Mary", changes.get(0).getDriverName());
+        assertEquals(0, changes.get(0).getPosition());
+        assertEquals(2, liveLeaderboard.snapshot(tlv).size());
+        assertTrue(liveLeaderboard.snapshot(haifa).stream().anyMatch(c -> c.getDriverName().equals("Mary")));
+
+        assertFalse(liveLeaderboard.hasCity(-1));
+        assertThrows(IllegalArgumentException.class, () -> liveLeaderboard.snapshot(-1));
+    }
+
+    /**
+     * Test case - a delivery with an end time of its own is exported and the file imported back.
+     * Expected result - the file has the end time and the imported delivery keeps it, rather than one derived
+     * from its distance
+     * @throws Exception
+     */
+    @Test
+    public void test29() throws Exception
+    {
+        Date start = new GregorianCalendar(2021, Calendar.AUGUST, 6,12,0).getTime();
+        Date end = new GregorianCalendar(2021, Calendar.AUGUST, 6,12,50).getTime();
+        Delivery d = new Delivery(
+                driverRepository.findByName("Patricia"),//TLV
+                restaurantRepository.findByName("cafe"),//TLV
+                customerRepository.findByName("Beethoven"),//TLV
+                start
+        );
+        d.setDistance(10);
+        d.setEndTime(end);
+        deliveryRepository.save(d);
+
+        Path file = Files.createTempFile("deliveries", ".csv");
+        try {
+            assertEquals(1, deliveryBulkService.exportCsv(file));
+            assertEquals("Patricia,cafe,Beethoven," + start.toInstant() + ",10.0," + end.toInstant(),
+                    Files.readAllLines(file).get(1));
+            assertEquals(1, deliveryBulkService.importCsv(file));
+        } finally {
+            Files.delete(file);
+        }
+        for (Delivery stored : deliveryRepository.findAll()) {
+            assertEquals(end.getTime(), stored.getEndTime().getTime());
+        }
+    }
 }
@@ -0,0 +1,55 @@
+package com.walt.benchmark;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.results.Result;
+import org.openjdk.jmh.results.RunResult;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+import java.util.Map;
+
+/**
+ * runs AssignmentBenchmark with the gc profiler and fails when a driver selection allocates more than
+ * the given bytes - the allocation free mode has to stay that way.
+ *
+ * run with: mvn -Pallocation-benchmark test-compile exec:exec [-Dbenchmark.max-bytes-per-op=16]
+ */
+public class AllocationGate {
+
+    public static void main(final String[] args) throws Exception {
+        final double maxBytes = args.length > 0 ? Double.parseDouble(args[0]) : 16;
+        final Options options = new OptionsBuilder()
+                .include(AssignmentBenchmark.class.getSimpleName())
+                .addProfiler(GCProfiler.class)
+                .build();
+
+        boolean passed = true;
+        for (final RunResult run : new Runner(options).run()) {
+            final String benchmark = run.getParams().getBenchmark();
+            final Double bytes = allocatedPerOp(run.getSecondaryResults());
+            if (bytes == null) {
+                System.out.println(benchmark + ": no allocation rate reported");
+                passed = false;
+            } else {
+                System.out.printf("%s: %.2f bytes/op allocated, limit %.2f%n", benchmark, bytes, maxBytes);
+                passed &= bytes <= maxBytes;
+            }
+        }
+        if (!passed) {
+            System.exit(1);
+        }
+    }
+
+    /**
+     * @return gc.alloc.rate.norm of the run - older jmh versions prefix the name with a dot.
+     */
+    private static Double allocatedPerOp(final Map<String, Result> results) {
+        for (final Map.Entry<String, Result> result : results.entrySet()) {
+            if (result.getKey().endsWith("gc.alloc.rate.norm")) {
+                return result.getValue().getScore();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,65 @@
+package com.walt.benchmark;
+
+import com.walt.dispatch.CityRoster;
+import com.walt.dispatch.DispatchState;
+import com.walt.model.Delivery;
+import org.openjdk.jmh.annotations.*;
+
+import java.time.ZoneId;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * driver selection of the allocation free mode, over a city of 256 drivers with a month of deliveries.
+ * every call asks for the next order of a steady stream, so the booked and the free paths are both taken.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class AssignmentBenchmark {
+    private static final long CITY_ID = 1;
+    private static final int DRIVERS = 256;
+    private static final long MINUTE_MILLIS = 60 * 1000;
+    private static final long MONTH_MILLIS = 30 * 24 * 60 * MINUTE_MILLIS;
+
+    private DispatchState state;
+    private CityRoster roster;
+    private long from;
+    private long time;
+
+    @Setup
+    public void setUp() {
+        state = new DispatchState(ZoneId.systemDefault(), 7 * 24 * 60 * MINUTE_MILLIS, 0.1);
+        final List<Long> drivers = new ArrayList<>();
+        for (long id = 1; id <= DRIVERS; id++) {
+            drivers.add(id);
+        }
+        roster = state.refreshRoster(CITY_ID, drivers, Collections.emptyMap());
+
+        final Random random = new Random(1);
+        from = System.currentTimeMillis() - MONTH_MILLIS;
+        for (long t = from; t < from + MONTH_MILLIS; t += MINUTE_MILLIS) {
+            final int distance = random.nextInt(21);
+            final int index = state.selectDriver(roster, t, t + Delivery.durationOf(distance), false);
+            if (index >= 0) {
+                state.record(roster.driverAt(index), CITY_ID, t, t + Delivery.durationOf(distance), distance);
+            }
+        }
+        time = from;
+    }
+
+    @Benchmark
+    public int selectDriver() {
+        time += 7 * MINUTE_MILLIS;
+        if (time >= from + MONTH_MILLIS) {
+            time = from;
+        }
+        return state.selectDriver(roster, time, time + 45 * MINUTE_MILLIS, false);
+    }
+}
@@ -0,0 +1,95 @@
+package com.walt.benchmark;
+
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.jdbc.datasource.init.ScriptUtils;
+
+import java.sql.*;
+import java.util.Random;
+
+/**
+ * writes a generated dataset straight into a file based H2 database with the pre-built schema.
+ * every city gets the same number of drivers, customers and restaurants, deliveries are spread over the
+ * last year at full hours.
+ */
+public class DatasetGenerator {
+    static final int CITIES = 20;
+    static final int DRIVERS_PER_CITY = 50;
+    static final int CUSTOMERS_PER_CITY = 200;
+    static final int RESTAURANTS_PER_CITY = 20;
+    private static final int BATCH_SIZE = 5000;
+    private static final long HOUR_MILLIS = 60 * 60 * 1000;
+
+    private final Random random = new Random(42);
+
+    /**
+     * @param jdbcUrl - url of an empty database.
+     * @param deliveries - number of deliveries to generate.
+     */
+    public void generate(final String jdbcUrl, final int deliveries) throws SQLException {
+        try (Connection conn = DriverManager.getConnection(jdbcUrl, "sa", "")) {
+            ScriptUtils.executeSqlScript(conn, new ClassPathResource("db/schema-h2.sql"));
+            conn.setAutoCommit(false);
+
+            long id = 0;
+            final long firstCity = id + 1;
+            try (PreparedStatement ps = conn.prepareStatement(
+                    "insert into named_entity (dtype, id, name, address, city_id) values (?, ?, ?, ?, ?)")) {
+                for (int c = 0; c < CITIES; c++) {
+                    addEntity(ps, "City", ++id, "city-" + c, null, null);
+                }
+                for (int c = 0; c < CITIES; c++) {
+                    for (int i = 0; i < DRIVERS_PER_CITY; i++) {
+                        addEntity(ps, "Driver", ++id, "driver-" + c + "-" + i, null, firstCity + c);
+                    }
+                    for (int i = 0; i < CUSTOMERS_PER_CITY; i++) {
+                        addEntity(ps, "Customer", ++id, "customer-" + c + "-" + i, "address " + i, firstCity + c);
+                    }
+                    for (int i = 0; i < RESTAURANTS_PER_CITY; i++) {
+                        addEntity(ps, "Restaurant", ++id, "restaurant-" + c + "-" + i, "address " + i, firstCity + c);
+                    }
+                }
+                ps.executeBatch();
+            }
+
+            final long perCity = DRIVERS_PER_CITY + CUSTOMERS_PER_CITY + RESTAURANTS_PER_CITY;
+            final long now = System.currentTimeMillis() / HOUR_MILLIS * HOUR_MILLIS;
+            try (PreparedStatement ps = conn.prepareStatement("insert into delivery " +
+                    "(id, delivery_time, distance, customer_id, driver_id, restaurant_id) values (?, ?, ?, ?, ?, ?)")) {
+                for (int i = 0; i < deliveries; i++) {
+                    final int c = random.nextInt(CITIES);
+                    final long cityBase = firstCity + CITIES + c * perCity;
+                    ps.setLong(1, ++id);
+                    ps.setTimestamp(2, new Timestamp(now - random.nextInt(365 * 24) * HOUR_MILLIS));
+                    ps.setDouble(3, random.nextInt(21));
+                    ps.setLong(4, cityBase + DRIVERS_PER_CITY + random.nextInt(CUSTOMERS_PER_CITY));
+                    ps.setLong(5, cityBase + random.nextInt(DRIVERS_PER_CITY));
+                    ps.setLong(6, cityBase + DRIVERS_PER_CITY + CUSTOMERS_PER_CITY + random.nextInt(RESTAURANTS_PER_CITY));
+                    ps.addBatch();
+                    if ((i + 1) % BATCH_SIZE == 0) {
+                        ps.executeBatch();
+                    }
+                }
+                ps.executeBatch();
+            }
+
+            try (Statement st = conn.createStatement()) {
+                st.execute("alter sequence hibernate_sequence restart with " + (id + 1));
+            }
+            conn.commit();
+        }
+    }
+
+    private void addEntity(final PreparedStatement ps, final String type, final long id, final String name,
+                           final String address, final Long cityId) throws SQLException {
+        ps.setString(1, type);
+        ps.setLong(2, id);
+        ps.setString(3, name);
+        ps.setString(4, address);
+        if (cityId == null) {
+            ps.setNull(5, Types.BIGINT);
+        } else {
+            ps.setLong(5, cityId);
+        }
+        ps.addBatch();
+    }
+}
@@ -0,0 +1,117 @@
+package com.walt.benchmark;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * startup time and memory footprint benchmark.
+ * for every dataset size a file based H2 database is generated, then the app is booted on it in a fresh JVM
+ * (StartupBenchmarkNode) a few times. the report holds time to ready, heap after GC, RSS and the latency of
+ * the first and the 1000th order, plus heap growth per 100k deliveries relative to the smallest dataset.
+ *
+ * run with: mvn -Pstartup-benchmark test-compile exec:exec [-Dbenchmark.sizes=0,100000] [-Dbenchmark.runs=3]
+ * extra app arguments (e.g. --spring.profiles.active=fast-start) go to -Dbenchmark.args.
+ */
+public class StartupBenchmark {
+    private static final Path WORK_DIR = Paths.get("target", "benchmark");
+
+    public static void main(final String[] args) throws Exception {
+        final int[] sizes = Arrays.stream(args.length > 0 ? args[0].split(",") : new String[]{"0", "100000", "500000"})
+                .mapToInt(s -> Integer.parseInt(s.trim())).sorted().toArray();
+        final int runs = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+        final List<String> appArgs = new ArrayList<>();
+        for (int i = 2; i < args.length; i++) {
+            appArgs.addAll(Arrays.asList(args[i].trim().split("\\s+")));
+        }
+        appArgs.removeIf(String::isEmpty);
+        Files.createDirectories(WORK_DIR);
+
+        final StringBuilder report = new StringBuilder()
+                .append("| deliveries | run | ready ms | heap MB | heap MB / 100k deliveries | RSS MB | 1st order us | 1000th order us |\n")
+                .append("|---|---|---|---|---|---|---|---|\n");
+        Long baselineHeap = null;
+        for (final int size : sizes) {
+            final String url = generate(size);
+            for (int run = 1; run <= runs; run++) {
+                final Map<String, Long> result = boot(url, appArgs);
+                if (baselineHeap == null) {
+                    baselineHeap = result.get("heapMb");
+                }
+                final String perHundredK = size == sizes[0] ? "-"
+                        : String.format("%.1f", (result.get("heapMb") - baselineHeap) * 100000.0 / (size - sizes[0]));
+                report.append("| ").append(size).append(" | ").append(run)
+                        .append(" | ").append(result.get("readyMs"))
+                        .append(" | ").append(result.get("heapMb"))
+                        .append(" | ").append(perHundredK)
+                        .append(" | ").append(result.get("rssMb"))
+                        .append(" | ").append(result.get("firstOrderUs"))
+                        .append(" | ").append(result.get("order1000Us")).append(" |\n");
+            }
+        }
+
+        final Path reportFile = WORK_DIR.resolve("startup-report.md");
+        Files.write(reportFile, report.toString().getBytes(StandardCharsets.UTF_8));
+        System.out.println(report);
+        System.out.println("report written to " + reportFile.toAbsolutePath());
+    }
+
+    /**
+     * generates a fresh database of the given size.
+     * @return its jdbc url.
+     */
+    private static String generate(final int deliveries) throws Exception {
+        final Path db = WORK_DIR.resolve("walt-" + deliveries).toAbsolutePath();
+        Files.deleteIfExists(Paths.get(db + ".mv.db"));
+        final String url = "jdbc:h2:file:" + db;
+        final long start = System.currentTimeMillis();
+        new DatasetGenerator().generate(url, deliveries);
+        System.out.println("generated " + deliveries + " deliveries in " + (System.currentTimeMillis() - start) + " ms");
+        return url;
+    }
+
+    /**
+     * boots the app in a new JVM on the given database.
+     * @return the measurements printed by the node.
+     */
+    private static Map<String, Long> boot(final String url, final List<String> appArgs)
+            throws IOException, InterruptedException {
+        final List<String> command = new ArrayList<>(Arrays.asList(
+                Paths.get(System.getProperty("java.home"), "bin", "java").toString(),
+                "-cp", System.getProperty("java.class.path"),
+                StartupBenchmarkNode.class.getName(),
+                "--server.port=0",
+                "--spring.datasource.url=" + url,
+                "--spring.jpa.hibernate.ddl-auto=none"));
+        command.addAll(appArgs);
+
+        final Process process = new ProcessBuilder(command).redirectErrorStream(true)
+                .redirectOutput(ProcessBuilder.Redirect.PIPE).directory(new File(".")).start();
+        String resultLine = null;
+        try (BufferedReader out = new BufferedReader(
+                new InputStreamReader(process.getInputStream(), StandardCharsets.UTF_8))) {
+            String line;
+            while ((line = out.readLine()) != null) {
+                if (line.startsWith(StartupBenchmarkNode.RESULT)) {
+                    resultLine = line;
+                }
+            }
+        }
+        if (process.waitFor() != 0 || resultLine == null) {
+            throw new IllegalStateException("benchmark node failed on " + url);
+        }
+
+        final Map<String, Long> result = new HashMap<>();
+        for (final String field : resultLine.substring(StartupBenchmarkNode.RESULT.length()).trim().split(" ")) {
+            final String[] kv = field.split("=");
+            result.put(kv[0], Long.parseLong(kv[1]));
+        }
+        return result;
+    }
+}
@@ -0,0 +1,128 @@
+package com.walt.benchmark;
+
+import com.walt.WaltApplication;
+import com.walt.WaltService;
+import com.walt.dao.CityRepository;
+import com.walt.dao.CustomerRepository;
+import com.walt.dao.DeliveryRepository;
+import com.walt.dao.RestaurantRepository;
+import com.walt.model.City;
+import com.walt.model.Customer;
+import com.walt.model.Restaurant;
+import org.springframework.boot.SpringApplication;
+import org.springframework.boot.context.TypeExcludeFilter;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.ConfigurableApplicationContext;
+import org.springframework.core.type.classreading.MetadataReader;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.*;
+
+/**
+ * a single benchmark run in its own JVM - boots the app on a prepared database, measures it and prints a
+ * RESULT line for StartupBenchmark.
+ */
+public class StartupBenchmarkNode {
+    static final String RESULT = "RESULT";
+    private static final int ORDERS = 1000;
+    private static final long ORDER_GAP_MILLIS = 10 * 60 * 1000;
+
+    public static void main(final String[] args) {
+        try {
+            run(args);
+        } catch (Throwable e) {
+            //the web server's threads would keep the JVM, and StartupBenchmark waiting for it, alive
+            e.printStackTrace();
+            System.exit(1);
+        }
+        System.exit(0);
+    }
+
+    private static void run(final String[] args) throws Exception {
+        final SpringApplication application = new SpringApplication(WaltApplication.class);
+        //test-classes is on the classpath, the test configurations must not be scanned into the app
+        application.addInitializers(context -> context.getBeanFactory().registerSingleton(
+                TestConfigurationExcludeFilter.class.getName(), new TestConfigurationExcludeFilter()));
+        final ConfigurableApplicationContext context = application.run(args);
+        //runners are done, this is when readiness reports ACCEPTING_TRAFFIC
+        final long readyMillis = ManagementFactory.getRuntimeMXBean().getUptime();
+
+        System.gc();
+        System.gc();
+        final long heapBytes = ManagementFactory.getMemoryMXBean().getHeapMemoryUsage().getUsed();
+        final long rssKb = readRssKb();
+
+        final long[] orderNanos = placeOrders(context);
+        System.out.println(RESULT + " readyMs=" + readyMillis + " heapMb=" + heapBytes / (1024 * 1024)
+                + " rssMb=" + rssKb / 1024 + " firstOrderUs=" + orderNanos[0] / 1000
+                + " order1000Us=" + orderNanos[ORDERS - 1] / 1000);
+        context.close();
+    }
+
+    /**
+     * places orders one after the other, every order 10 minutes after the previous one.
+     * @return the time each order took, in nanos.
+     */
+    private static long[] placeOrders(final ConfigurableApplicationContext context) throws Exception {
+        final WaltService waltService = context.getBean(WaltService.class);
+        final DeliveryRepository deliveryRepo = context.getBean(DeliveryRepository.class);
+        final Map<Long, List<Customer>> customers = new HashMap<>();
+        final Map<Long, List<Restaurant>> restaurants = new HashMap<>();
+        for (final Customer c : context.getBean(CustomerRepository.class).findAll()) {
+            customers.computeIfAbsent(c.getCity().getId(), k -> new ArrayList<>()).add(c);
+        }
+        for (final Restaurant r : context.getBean(RestaurantRepository.class).findAll()) {
+            restaurants.computeIfAbsent(r.getCity().getId(), k -> new ArrayList<>()).add(r);
+        }
+        final List<City> cities = new ArrayList<>();
+        for (final City city : context.getBean(CityRepository.class).findAll()) {
+            if (customers.containsKey(city.getId()) && restaurants.containsKey(city.getId())) {
+                cities.add(city);
+            }
+        }
+
+        final long[] nanos = new long[ORDERS];
+        final long start = System.currentTimeMillis();
+        for (int i = 0; i < ORDERS; i++) {
+            final City city = cities.get(i % cities.size());
+            final List<Customer> cityCustomers = customers.get(city.getId());
+            final List<Restaurant> cityRestaurants = restaurants.get(city.getId());
+            final long t0 = System.nanoTime();
+            deliveryRepo.save(waltService.createOrderAndAssignDriver(cityCustomers.get(i % cityCustomers.size()),
+                    cityRestaurants.get(i % cityRestaurants.size()), new Date(start + i * ORDER_GAP_MILLIS)));
+            nanos[i] = System.nanoTime() - t0;
+        }
+        return nanos;
+    }
+
+    /**
+     * leaves out the @TestConfiguration classes, as the test context of spring boot does.
+     */
+    private static final class TestConfigurationExcludeFilter extends TypeExcludeFilter {
+        @Override
+        public boolean match(final MetadataReader metadataReader, final MetadataReaderFactory metadataReaderFactory) {
+            return metadataReader.getAnnotationMetadata().hasAnnotation(TestConfiguration.class.getName());
+        }
+    }
+
+    /**
+     * @return resident set size of this process, -1 where /proc isn't available.
+     */
+    private static long readRssKb() throws IOException {
+        final Path status = Paths.get("/proc/self/status");
+        if (!Files.exists(status)) {
+            return -1;
+        }
+        for (final String line : Files.readAllLines(status)) {
+            if (line.startsWith("VmRSS:")) {
+                return Long.parseLong(line.replaceAll("[^0-9]", ""));
+            }
+        }
+        return -1;
+    }
+}
@@ -0,0 +1,54 @@
+package com.walt.load;
+
+import java.util.Random;
+
+/**
+ * shape of the order arrivals of a single city over the day.
+ */
+public interface ArrivalPattern {
+    long HOUR_MILLIS = 60 * 60 * 1000;
+
+    /**
+     * @param time - time of the previous arrival, in millis.
+     * @param random - source of randomness of the run.
+     * @return time of the next arrival.
+     */
+    long next(long time, Random random);
+
+    /**
+     * homogeneous poisson arrivals - exponential gaps between orders.
+     * @param ordersPerHour - average rate.
+     */
+    static ArrivalPattern poisson(final double ordersPerHour) {
+        return (time, random) -> time + exponentialGap(ordersPerHour, random);
+    }
+
+    /**
+     * poisson arrivals whose rate peaks around lunch (12:30) and dinner (19:30), quiet at night.
+     * generated by thinning a poisson process running at the peak rate.
+     * @param peakOrdersPerHour - rate at the top of the lunch peak.
+     */
+    static ArrivalPattern lunchPeak(final double peakOrdersPerHour) {
+        return (time, random) -> {
+            long t = time;
+            do {
+                t += exponentialGap(peakOrdersPerHour, random);
+            } while (random.nextDouble() > lunchPeakShare(t));
+            return t;
+        };
+    }
+
+    /**
+     * @return share of the peak rate at the given time of day (UTC), between 0.05 and 1.
+     */
+    static double lunchPeakShare(final long time) {
+        final double hour = (time % (24 * HOUR_MILLIS)) / (double) HOUR_MILLIS;
+        final double lunch = Math.exp(-Math.pow(hour - 12.5, 2) / 2);
+        final double dinner = 0.8 * Math.exp(-Math.pow(hour - 19.5, 2) / 2);
+        return Math.max(0.05, Math.max(lunch, dinner));
+    }
+
+    static long exponentialGap(final double ordersPerHour, final Random random) {
+        return (long) (-Math.log(1 - random.nextDouble()) / ordersPerHour * HOUR_MILLIS);
+    }
+}
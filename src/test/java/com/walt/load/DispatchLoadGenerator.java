@@ -0,0 +1,185 @@
+package com.walt.load;
+
+import com.walt.WaltService;
+import com.walt.dao.DeliveryRepository;
+import com.walt.model.City;
+import com.walt.model.Customer;
+import com.walt.model.Delivery;
+import com.walt.model.Restaurant;
+
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * replays generated order arrivals against WaltService, in-process.
+ * cities are split between worker threads and every city is ordered by a single thread in arrival order,
+ * the same way a city is dispatched by a single node in a cluster. runSameCity has every thread order every
+ * city instead, so orders of a city race each other the way concurrent requests to a node do. once the run is
+ * over the stored deliveries are checked for drivers booked twice at the same time.
+ */
+public class DispatchLoadGenerator {
+    private static final String NO_DRIVER = "There isn't available driver at this moment.";
+
+    private final WaltService waltService;
+    private final DeliveryRepository deliveryRepo;
+    private final Map<City, List<Customer>> customers;
+    private final Map<City, List<Restaurant>> restaurants;
+
+    /**
+     * @param customers - customers that order, by city.
+     * @param restaurants - restaurants they order from, by city.
+     */
+    public DispatchLoadGenerator(final WaltService waltService, final DeliveryRepository deliveryRepo,
+                                 final Map<City, List<Customer>> customers,
+                                 final Map<City, List<Restaurant>> restaurants) {
+        this.waltService = waltService;
+        this.deliveryRepo = deliveryRepo;
+        this.customers = customers;
+        this.restaurants = restaurants;
+    }
+
+    /**
+     * @param pattern - arrivals of every city.
+     * @param start - delivery time of the first order, in millis.
+     * @param hours - length of the replayed period.
+     * @param threads - number of workers.
+     * @param seed - seed of the arrivals, equal seeds replay the same orders.
+     */
+    public LoadReport run(final ArrivalPattern pattern, final long start, final int hours, final int threads,
+                          final long seed) throws Exception {
+        final List<List<City>> shards = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            shards.add(new ArrayList<>());
+        }
+        int i = 0;
+        for (final City city : customers.keySet()) {
+            shards.get(i++ % threads).add(city);
+        }
+        return run(shards, pattern, start, hours, seed);
+    }
+
+    /**
+     * every worker orders every city with its own arrivals, the orders of a city run at the same time.
+     * @param pattern - arrivals of every city, per worker.
+     * @param start - delivery time of the first order, in millis.
+     * @param hours - length of the replayed period.
+     * @param threads - number of workers.
+     * @param seed - seed of the arrivals, equal seeds replay the same orders.
+     */
+    public LoadReport runSameCity(final ArrivalPattern pattern, final long start, final int hours, final int threads,
+                                  final long seed) throws Exception {
+        final List<List<City>> shards = new ArrayList<>();
+        for (int i = 0; i < threads; i++) {
+            shards.add(new ArrayList<>(customers.keySet()));
+        }
+        return run(shards, pattern, start, hours, seed);
+    }
+
+    private LoadReport run(final List<List<City>> shards, final ArrivalPattern pattern, final long start,
+                           final int hours, final long seed) throws Exception {
+        final int threads = shards.size();
+        final ExecutorService executor = Executors.newFixedThreadPool(threads);
+        final List<Future<Worker>> results = new ArrayList<>();
+        final long wallStart = System.nanoTime();
+        for (int s = 0; s < threads; s++) {
+            final Worker worker = new Worker(shards.get(s), new Random(seed + s));
+            results.add(executor.submit(() -> worker.run(pattern, start, start + hours * ArrivalPattern.HOUR_MILLIS)));
+        }
+
+        long[] latencies = new long[0];
+        int rejected = 0;
+        final Map<String, Integer> errors = new HashMap<>();
+        for (final Future<Worker> result : results) {
+            final Worker worker = result.get();
+            final long[] merged = Arrays.copyOf(latencies, latencies.length + worker.orders);
+            System.arraycopy(worker.latencies, 0, merged, latencies.length, worker.orders);
+            latencies = merged;
+            rejected += worker.rejected;
+            worker.errors.forEach((k, v) -> errors.merge(k, v, Integer::sum));
+        }
+        final long wallNanos = System.nanoTime() - wallStart;
+        executor.shutdown();
+
+        return new LoadReport(latencies, rejected, errors, wallNanos, countDoubleBooked());
+    }
+    //---------------------------------------------------------------------------
+    /**
+     * @return number of deliveries that start before the previous delivery of their driver ended.
+     */
+    int countDoubleBooked() {
+        final Map<Long, TreeMap<Long, Long>> byDriver = new HashMap<>(); //key - driver id, then start to end
+        for (final Delivery d : deliveryRepo.findAll()) {
+            final long start = d.getDeliveryTime().getTime();
+            final long end = d.getEndTime() == null ?
+                    start + Delivery.LEGACY_DURATION_MILLIS : d.getEndTime().getTime();
+            byDriver.computeIfAbsent(d.getDriver().getId(), k -> new TreeMap<>()).merge(start, end, Math::max);
+        }
+        int doubleBooked = 0;
+        for (final TreeMap<Long, Long> intervals : byDriver.values()) {
+            long previousEnd = Long.MIN_VALUE;
+            for (final Map.Entry<Long, Long> interval : intervals.entrySet()) {
+                if (interval.getKey() < previousEnd) {
+                    doubleBooked++;
+                }
+                previousEnd = Math.max(previousEnd, interval.getValue());
+            }
+        }
+        return doubleBooked;
+    }
+    //---------------------------------------------------------------------------
+    /**
+     * orders of the cities of a single thread, in arrival order across its cities.
+     */
+    private class Worker {
+        private final List<City> cities;
+        private final Random random;
+        private long[] latencies = new long[1024];
+        private int orders;
+        private int rejected;
+        private final Map<String, Integer> errors = new HashMap<>();
+
+        Worker(final List<City> cities, final Random random) {
+            this.cities = cities;
+            this.random = random;
+        }
+
+        Worker run(final ArrivalPattern pattern, final long start, final long end) {
+            //next arrival of every city, the earliest one is ordered first
+            final PriorityQueue<long[]> arrivals = new PriorityQueue<>(Comparator.comparingLong((long[] a) -> a[0]));
+            for (int c = 0; c < cities.size(); c++) {
+                arrivals.add(new long[]{pattern.next(start, random), c});
+            }
+            while (!arrivals.isEmpty() && arrivals.peek()[0] < end) {
+                final long[] arrival = arrivals.poll();
+                order(cities.get((int) arrival[1]), arrival[0]);
+                arrival[0] = pattern.next(arrival[0], random);
+                arrivals.add(arrival);
+            }
+            return this;
+        }
+
+        private void order(final City city, final long time) {
+            final List<Customer> cityCustomers = customers.get(city);
+            final List<Restaurant> cityRestaurants = restaurants.get(city);
+            final Customer customer = cityCustomers.get(random.nextInt(cityCustomers.size()));
+            final Restaurant restaurant = cityRestaurants.get(random.nextInt(cityRestaurants.size()));
+
+            final long t0 = System.nanoTime();
+            try {
+                deliveryRepo.save(waltService.createOrderAndAssignDriver(customer, restaurant, new Date(time)));
+            } catch (Exception e) {
+                if (NO_DRIVER.equals(e.getMessage())) {
+                    rejected++;
+                } else {
+                    errors.merge(String.valueOf(e.getMessage()), 1, Integer::sum);
+                }
+            }
+            if (orders == latencies.length) {
+                latencies = Arrays.copyOf(latencies, orders * 2);
+            }
+            latencies[orders++] = System.nanoTime() - t0;
+        }
+    }
+}
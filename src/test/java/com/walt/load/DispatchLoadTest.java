@@ -0,0 +1,132 @@
+package com.walt.load;
+
+import com.walt.WaltService;
+import com.walt.dao.*;
+import com.walt.model.*;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.context.SpringBootTest;
+import org.springframework.test.annotation.DirtiesContext;
+
+import javax.annotation.Resource;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+/**
+ * load runs against the in-process service. the default scale is small enough for the regular build,
+ * bigger runs: mvn test -Dtest=DispatchLoadTest -Dload.cities=50 -Dload.hours=168 -Dload.rate=40
+ * HighThroughputLoadTest runs the same load with the high-throughput profile.
+ */
+@SpringBootTest()
+@DirtiesContext(classMode = DirtiesContext.ClassMode.BEFORE_EACH_TEST_METHOD)
+public class DispatchLoadTest {
+    private static final Logger log = LoggerFactory.getLogger(DispatchLoadTest.class);
+    private static final int CITIES = Integer.getInteger("load.cities", 4);
+    private static final int HOURS = Integer.getInteger("load.hours", 24);
+    private static final int RATE = Integer.getInteger("load.rate", 10);
+    private static final int THREADS = Integer.getInteger("load.threads", 2);
+    private static final int DRIVERS_PER_CITY = 8;
+
+    @Autowired
+    WaltService waltService;
+
+    @Resource
+    CityRepository cityRepository;
+
+    @Resource
+    CustomerRepository customerRepository;
+
+    @Resource
+    DriverRepository driverRepository;
+
+    @Resource
+    DeliveryRepository deliveryRepository;
+
+    @Resource
+    RestaurantRepository restaurantRepository;
+
+    private final Map<City, List<Customer>> customers = new HashMap<>();
+    private final Map<City, List<Restaurant>> restaurants = new HashMap<>();
+
+    @BeforeEach()
+    public void prepareData() {
+        for (int c = 0; c < CITIES; c++) {
+            final City city = cityRepository.save(new City("city-" + c));
+            final List<Driver> drivers = new ArrayList<>();
+            for (int i = 0; i < DRIVERS_PER_CITY; i++) {
+                drivers.add(new Driver("driver-" + c + "-" + i, city));
+            }
+            driverRepository.saveAll(drivers);
+
+            final List<Customer> cityCustomers = new ArrayList<>();
+            for (int i = 0; i < 20; i++) {
+                cityCustomers.add(new Customer("customer-" + c + "-" + i, city, "address " + i));
+            }
+            customers.put(city, (List<Customer>) customerRepository.saveAll(cityCustomers));
+
+            final List<Restaurant> cityRestaurants = new ArrayList<>();
+            for (int i = 0; i < 5; i++) {
+                cityRestaurants.add(new Restaurant("restaurant-" + c + "-" + i, city, "address " + i));
+            }
+            restaurants.put(city, (List<Restaurant>) restaurantRepository.saveAll(cityRestaurants));
+        }
+    }
+
+    private DispatchLoadGenerator generator() {
+        return new DispatchLoadGenerator(waltService, deliveryRepository, customers, restaurants);
+    }
+
+    private long startOfDay() {
+        return new GregorianCalendar(2021, Calendar.AUGUST, 6, 0, 0).getTimeInMillis();
+    }
+
+    /**
+     * Test case - steady poisson arrivals in every city.
+     * Expected result - every order is either assigned or rejected, no driver is booked twice.
+     */
+    @Test
+    public void poissonArrivals() throws Exception {
+        final LoadReport report = generator().run(ArrivalPattern.poisson(RATE), startOfDay(), HOURS, THREADS, 1);
+        log.info("{} poisson: {}", getClass().getSimpleName(), report);
+
+        assertTrue(report.getOrders() > 0);
+        assertTrue(report.getErrors().isEmpty());
+        assertEquals(0, report.getDoubleBooked());
+        assertEquals(report.getOrders() - report.getRejected(), deliveryRepository.count());
+    }
+
+    /**
+     * Test case - lunch and dinner peaks above what the drivers can serve.
+     * Expected result - orders are rejected at the peaks, no driver is booked twice.
+     */
+    @Test
+    public void lunchPeakArrivals() throws Exception {
+        final LoadReport report = generator().run(ArrivalPattern.lunchPeak(DRIVERS_PER_CITY * 3), startOfDay(),
+                HOURS, THREADS, 2);
+        log.info("{} lunch peak: {}", getClass().getSimpleName(), report);
+
+        assertTrue(report.getRejected() > 0);
+        assertTrue(report.getErrors().isEmpty());
+        assertEquals(0, report.getDoubleBooked());
+        assertEquals(report.getOrders() - report.getRejected(), deliveryRepository.count());
+    }
+
+    /**
+     * Test case - every thread orders every city, orders of a city are assigned at the same time.
+     * Expected result - concurrent orders of a city get different drivers, no driver is booked twice.
+     */
+    @Test
+    public void sameCityConcurrentArrivals() throws Exception {
+        final LoadReport report = generator().runSameCity(ArrivalPattern.lunchPeak(DRIVERS_PER_CITY),
+                startOfDay(), HOURS, Math.max(THREADS, 4), 3);
+        log.info("{} same city: {}", getClass().getSimpleName(), report);
+
+        assertTrue(report.getErrors().isEmpty());
+        assertEquals(0, report.getDoubleBooked());
+        assertEquals(report.getOrders() - report.getRejected(), deliveryRepository.count());
+    }
+}
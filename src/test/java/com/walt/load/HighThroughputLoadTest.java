@@ -0,0 +1,30 @@
+package com.walt.load;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.context.ActiveProfiles;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * the load runs of DispatchLoadTest with the high-throughput profile - the profile must not cost correctness.
+ * nothing asserts it's faster, the reports of both classes are for comparing by hand.
+ * bigger runs: mvn test -Dtest=*LoadTest -Dload.cities=50 -Dload.hours=168 -Dload.rate=40 -Dload.threads=8
+ */
+@ActiveProfiles("high-throughput")
+public class HighThroughputLoadTest extends DispatchLoadTest {
+
+    @Autowired
+    JdbcTemplate jdbcTemplate;
+
+    /**
+     * Test case - the size of H2's statement cache of a pooled connection.
+     * Expected result - the size set by the profile, not H2's default of 8
+     */
+    @Test
+    public void statementCache() {
+        assertEquals("128", jdbcTemplate.queryForObject(
+                "select value from information_schema.settings where name = 'QUERY_CACHE_SIZE'", String.class));
+    }
+}
@@ -0,0 +1,75 @@
+package com.walt.load;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * results of a single load run.
+ */
+public class LoadReport {
+    private final long[] latencyNanos;
+    private final int rejected;
+    private final Map<String, Integer> errors;
+    private final long wallNanos;
+    private final int doubleBooked;
+
+    LoadReport(final long[] latencyNanos, final int rejected, final Map<String, Integer> errors,
+               final long wallNanos, final int doubleBooked) {
+        this.latencyNanos = latencyNanos.clone();
+        Arrays.sort(this.latencyNanos);
+        this.rejected = rejected;
+        this.errors = new TreeMap<>(errors);
+        this.wallNanos = wallNanos;
+        this.doubleBooked = doubleBooked;
+    }
+
+    public int getOrders() {
+        return latencyNanos.length;
+    }
+
+    public int getRejected() {
+        return rejected;
+    }
+
+    public double getRejectionRate() {
+        return latencyNanos.length == 0 ? 0 : rejected / (double) latencyNanos.length;
+    }
+
+    /**
+     * @return failures other than "no available driver", by message.
+     */
+    public Map<String, Integer> getErrors() {
+        return errors;
+    }
+
+    /**
+     * @return number of deliveries that overlap another delivery of the same driver.
+     */
+    public int getDoubleBooked() {
+        return doubleBooked;
+    }
+
+    public double getThroughput() {
+        return latencyNanos.length / (wallNanos / 1e9);
+    }
+
+    /**
+     * @param percentile - between 0 and 100.
+     * @return assignment latency at the percentile, in micros.
+     */
+    public long latencyMicros(final double percentile) {
+        if (latencyNanos.length == 0) {
+            return 0;
+        }
+        final int index = (int) Math.ceil(percentile / 100 * latencyNanos.length) - 1;
+        return latencyNanos[Math.max(0, Math.min(index, latencyNanos.length - 1))] / 1000;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("orders=%d throughput=%.0f/s p50=%dus p99=%dus p99.9=%dus rejected=%.2f%% " +
+                        "errors=%s double-booked=%d", getOrders(), getThroughput(), latencyMicros(50),
+                latencyMicros(99), latencyMicros(99.9), getRejectionRate() * 100, errors, doubleBooked);
+    }
+}